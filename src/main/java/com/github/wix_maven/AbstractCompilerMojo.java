@@ -19,9 +19,6 @@ import java.util.Set;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
-import org.apache.maven.shared.artifact.filter.collection.ArtifactFilterException;
-import org.apache.maven.shared.artifact.filter.collection.FilterArtifacts;
-import org.apache.maven.shared.artifact.filter.collection.TypeFilter;
 
 public abstract class AbstractCompilerMojo extends AbstractWixMojo {
 
@@ -34,24 +31,8 @@ public abstract class AbstractCompilerMojo extends AbstractWixMojo {
   protected void addResource(File resUnpackDirectory, Artifact wixRes)
       throws MojoExecutionException {}
 
-  @SuppressWarnings("unchecked")
   protected Set<Artifact> getNARDependencySets() throws MojoExecutionException {
-    FilterArtifacts filter = new FilterArtifacts();
-    // Cannot do this filter in maven3 as it blocks classifiers - works in maven 2.
-    // filter.addFilter(new ProjectTransitivityFilter(project.getDependencyArtifacts(), true));
-    filter.addFilter(new TypeFilter("nar", ""));
-
-    // start with all artifacts.
-    Set<Artifact> artifacts = project.getArtifacts();
-
-    // perform filtering
-    try {
-      artifacts = filter.filter(artifacts);
-    } catch (ArtifactFilterException e) {
-      throw new MojoExecutionException(e.getMessage(), e);
-    }
-
-    return artifacts;
+    return DependencyIndex.get(project).get(DependencyIndex.Role.NAR);
   }
 
   protected void addWixDefines() throws MojoExecutionException {
@@ -18,9 +18,7 @@ import java.io.File;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
-import org.codehaus.plexus.util.cli.StreamConsumer;
 
 /**
  * Abstract Goal which executes WiX Insignia for<br>
@@ -102,28 +100,8 @@ public abstract class AbstractInsigniaMojo extends AbstractPackageable {
       }
 
       // TODO: maybe should report or do something with return value.
-      int returnValue = CommandLineUtils.executeCommandLine(cl, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          // TODO: torch specific message handling
-          if (line.contains(" : error ")) {
-            getLog().error(line);
-          } else if (line.contains(" : warning ")) {
-            getLog().warn(line);
-          } else if (verbose) {
-            getLog().info(line);
-          } else {
-            getLog().debug(line);
-          }
-        }
-
-      }, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          getLog().error(line);
-        }
-
-      });
+      int returnValue =
+          runTool("insignia", cl, toolOutput(" : error ", " : warning "), toolErrors());
 
       if (returnValue != 0) {
         throw new MojoExecutionException("Problem executing insignia, return code " + returnValue);
@@ -136,7 +114,7 @@ public abstract class AbstractInsigniaMojo extends AbstractPackageable {
   }
 
   protected File validateTool() throws MojoExecutionException {
-    File torchTool = getCommandBuilder().resolveToolExecutable(toolDirectory, "insignia");
+    File torchTool = resolveTool("insignia");
     if (!torchTool.exists())
       throw new MojoExecutionException("Insignia tool doesn't exist " + torchTool.getAbsolutePath());
     return torchTool;
@@ -14,6 +14,7 @@ package com.github.wix_maven;
  */
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
@@ -25,10 +26,9 @@ import java.util.Set;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Parameter;
+import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
-import org.codehaus.plexus.util.cli.StreamConsumer;
 
 public abstract class AbstractLinker extends AbstractPackageable {
 
@@ -38,6 +38,15 @@ public abstract class AbstractLinker extends AbstractPackageable {
     return list;
   }
 
+  /**
+   * The name of the response file of one link, by tool and platform/culture.
+   */
+  public static final String LINK_RESPONSE_FILE_NAME = "%1$sResponseFile-%2$s.txt";
+
+  public static final String LINK_MANIFEST_FILE_NAME = "%1$sManifest-%2$s.properties";
+
+  public static final String LINK_CONTENTS_FILE_NAME = "%1$sContents-%2$s.txt";
+
   /**
    * Properties catch all in case we missed some configuration. Passed directly to light or lit
    */
@@ -100,16 +109,18 @@ public abstract class AbstractLinker extends AbstractPackageable {
   protected Set<String> fileSourceRoots = new HashSet<String>();
 
   /**
-   * A pool of executors running linkers.
+   * Skip linking an output when it exists and its inputs, bound payloads and command line are the
+   * same as when it was last linked.
    */
-  // private ExecutorService exService;
+  @Parameter(property = "wix.incrementalLink", defaultValue = "true")
+  protected boolean incrementalLink;
 
   /**
    * Return include filters for intermediate object inputs.
    * 
    * @return include patterns for intermediate files.
    */
-  public final Set<String> getIncludes() {
+  public final synchronized Set<String> getIncludes() {
     if (intIncludes.isEmpty()) {
       intIncludes.add("**/*.wixlib");
       intIncludes.add("**/*.wixobj");
@@ -121,7 +132,7 @@ public abstract class AbstractLinker extends AbstractPackageable {
     return intExcludes;
   }
 
-  public final Set<String> getLocaleIncludes() {
+  public final synchronized Set<String> getLocaleIncludes() {
     if (wxlIncludes.isEmpty()) {
       wxlIncludes.add("**/*.wxl");
     }
@@ -174,6 +185,142 @@ public abstract class AbstractLinker extends AbstractPackageable {
     // C:\Data\dev\prj\sso\SecureLogin-8-0-0\SecureLogin\assemblies\MSI-SL-32\SecureLogin-32.wixproj
   }
 
+  /**
+   * Write the object or source files of one link into a response file in the intermediate directory
+   * and pass it to the tool, rather than listing them on the command line.
+   * 
+   * @param cl the link command line.
+   * @param tool the tool name, used in the response file name.
+   * @param arch the platform.
+   * @param culture the culture or null.
+   * @param content the files and options.
+   * @throws MojoExecutionException if the file cannot be written.
+   */
+  protected void addLinkResponseFile(Commandline cl, String tool, String arch, String culture,
+      ResponseFile content) throws MojoExecutionException {
+    File responseFile = getLinkStateFile(LINK_RESPONSE_FILE_NAME, tool, arch, culture);
+    writeResponseFile(responseFile, content);
+    cl.addArguments(new String[] {"@" + responseFile.getAbsolutePath()});
+  }
+
+  /**
+   * @param kind the manifest or contents file name pattern.
+   * @param tool the tool name.
+   * @param arch the platform.
+   * @param culture the culture or null.
+   * @return the file in the intermediate directory of the cell.
+   */
+  protected File getLinkStateFile(String kind, String tool, String arch, String culture) {
+    return new File(getArchIntDirectory(arch, culture), String.format(kind, tool,
+        culture == null ? arch : arch + "-" + culture));
+  }
+
+  /**
+   * Compare the inputs of a link with those recorded by the last link, logging why the link is
+   * needed.
+   * 
+   * @param manifest the current inputs.
+   * @param manifestFile the manifest saved by the last link.
+   * @param output the link output.
+   * @return true if the link can be skipped.
+   * @throws MojoExecutionException if the saved manifest cannot be read.
+   */
+  protected boolean isLinkUpToDate(InputManifest manifest, File manifestFile, File output)
+      throws MojoExecutionException {
+    String reason;
+    if (!incrementalLink)
+      reason = "incremental link is disabled";
+    else if (!output.isFile())
+      reason = "output is missing";
+    else {
+      try {
+        reason = manifest.compare(manifestFile);
+      } catch (IOException e) {
+        throw new MojoExecutionException("Unable to read link manifest " + manifestFile, e);
+      }
+    }
+    if (reason == null) {
+      getLog().info(" -- Up to date : " + output.getPath());
+      return true;
+    }
+    getLog().info(" -- Relinking " + output.getName() + ", " + reason);
+    return false;
+  }
+
+  /**
+   * Add files given relative to the working directory of the tools to a manifest.
+   * 
+   * @param manifest the inputs of a link.
+   * @param kind what the files are, such as object.
+   * @param paths the files, relative or absolute.
+   * @throws MojoExecutionException if a file cannot be read.
+   */
+  protected void addLinkInputs(InputManifest manifest, String kind, Collection<String> paths)
+      throws MojoExecutionException {
+    try {
+      for (String path : paths) {
+        File file = new File(path);
+        manifest.addFile(kind, file.isAbsolute() ? file : new File(relativeBase, path));
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to read link inputs", e);
+    }
+  }
+
+  /**
+   * Add the listing of each bind root to a manifest, so a file added to a root, which shadows a
+   * file of the same name in a later root, relinks. The local repository is not walked, it is the
+   * last root so it shadows nothing, and its bound payloads are stamped.
+   * 
+   * @param manifest the inputs of a link.
+   * @param roots the -b paths.
+   * @throws MojoExecutionException if a root cannot be walked.
+   */
+  protected void addBindRoots(InputManifest manifest, Collection<String> roots)
+      throws MojoExecutionException {
+    String localRepository = repoSession.getLocalRepository().getBasedir().getAbsolutePath();
+    try {
+      for (String root : roots) {
+        if (!root.equals(localRepository))
+          manifest.add("bind:" + root, InputManifest.digestTree(new File(root)));
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to list bind paths", e);
+    }
+  }
+
+  /**
+   * Record the inputs of a successful link, with the payloads listed by the tool.
+   * <p>
+   * light -contentsfile lists one path per line, wix build -trackingfile one type and path per line
+   * separated by a tab, of which only the Input lines are payloads.
+   * 
+   * @param manifest the inputs.
+   * @param manifestFile where to save them.
+   * @param contentsFile the payloads the tool bound, one path per line, may not exist.
+   * @throws MojoExecutionException if the files cannot be read or written.
+   */
+  protected void saveLinkManifest(InputManifest manifest, File manifestFile, File contentsFile)
+      throws MojoExecutionException {
+    try {
+      if (contentsFile != null && contentsFile.isFile()) {
+        for (String line : FileUtils.fileRead(contentsFile, "UTF-8").split("\\r?\\n")) {
+          int tab = line.indexOf('\t');
+          if (tab >= 0) {
+            if (!"Input".equals(line.substring(0, tab)))
+              continue;
+            line = line.substring(tab + 1);
+          }
+          if (!line.trim().isEmpty())
+            manifest.addPayload(new File(line.trim()));
+        }
+      }
+      manifest.save(manifestFile);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to write link manifest " + manifestFile, e);
+    }
+  }
+
   protected void addOtherOptions(Commandline cl) {
     if (linkProperties != null && !linkProperties.isEmpty()) {
       ArrayList<String> result = new ArrayList<String>();
@@ -204,27 +351,8 @@ public abstract class AbstractLinker extends AbstractPackageable {
 
 
       // TODO: maybe should report or do something with return value.
-      int returnValue = CommandLineUtils.executeCommandLine(cl, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          if (line.contains(" : error ")) {
-            getLog().error(line);
-          } else if (line.contains(" : warning ")) {
-            getLog().warn(line);
-          } else if (verbose) {
-            getLog().info(line);
-          } else {
-            getLog().debug(line);
-          }
-        }
-
-      }, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          getLog().error(line);
-        }
-
-      });
+      int returnValue =
+          runTool(toolName(cl), cl, toolOutput(" : error ", " : warning "), toolErrors());
 
       if (returnValue != 0) {
         throw new MojoExecutionException("Problem executing linker, return code " + returnValue);
@@ -248,9 +376,7 @@ public abstract class AbstractLinker extends AbstractPackageable {
       outputDirectory.mkdirs();
 
     // unpackFileBasedResources();
-    // final int noOfTh = 4;
-    // exService = Executors.newFixedThreadPool(noOfTh);
-    multilink(toolDirectory);
+    multilink(getToolDirectory());
 
     // if (!extendedUse)
     // cleanupFileBasedResources();
@@ -16,9 +16,7 @@ package com.github.wix_maven;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
-import org.codehaus.plexus.util.cli.StreamConsumer;
 
 import java.io.File;
 
@@ -85,28 +83,7 @@ public abstract class AbstractTorchMojo extends AbstractPackageable {
       }
 
       // TODO: maybe should report or do something with return value.
-      int returnValue = CommandLineUtils.executeCommandLine(cl, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          // TODO: torch specific message handling
-          if (line.contains(" : error ")) {
-            getLog().error(line);
-          } else if (line.contains(" : warning ")) {
-            getLog().warn(line);
-          } else if (verbose) {
-            getLog().info(line);
-          } else {
-            getLog().debug(line);
-          }
-        }
-
-      }, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          getLog().error(line);
-        }
-
-      });
+      int returnValue = runTool("torch", cl, toolOutput(" : error ", " : warning "), toolErrors());
 
       if (returnValue != 0) {
         throw new MojoExecutionException("Problem executing torch, return code " + returnValue);
@@ -119,7 +96,7 @@ public abstract class AbstractTorchMojo extends AbstractPackageable {
   }
 
   protected File validateTool() throws MojoExecutionException {
-    File torchTool = getCommandBuilder().resolveToolExecutable(toolDirectory, "torch");
+    File torchTool = resolveTool("torch");
     if (!torchTool.exists())
       throw new MojoExecutionException("Torch tool doesn't exist " + torchTool.getAbsolutePath());
     return torchTool;
@@ -15,7 +15,12 @@ package com.github.wix_maven;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarFile;
 
 import org.apache.maven.RepositoryUtils;
 import org.apache.maven.artifact.Artifact;
@@ -24,25 +29,26 @@ import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException
 import org.apache.maven.artifact.versioning.VersionRange;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
-import org.apache.maven.shared.artifact.filter.collection.ArtifactFilterException;
-import org.apache.maven.shared.artifact.filter.collection.ClassifierFilter;
-import org.apache.maven.shared.artifact.filter.collection.FilterArtifacts;
-import org.apache.maven.shared.artifact.filter.collection.ProjectTransitivityFilter;
-import org.apache.maven.shared.artifact.filter.collection.TypeFilter;
 import org.codehaus.plexus.archiver.zip.ZipUnArchiver;
 import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
+import org.codehaus.plexus.util.cli.CommandLineException;
 import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.LocalArtifactRequest;
+import org.eclipse.aether.repository.LocalArtifactResult;
 import org.eclipse.aether.repository.RemoteRepository;
-import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.repository.RepositoryPolicy;
 import org.eclipse.aether.resolution.ArtifactResolutionException;
 import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
 
 public abstract class AbstractWixMojo extends AbstractMojo {
 
@@ -168,6 +174,35 @@ public abstract class AbstractWixMojo extends AbstractMojo {
   @Parameter
   private Set<String> platforms;
 
+  /**
+   * How many independent tool invocations, such as candle for each platform and culture, may run at
+   * the same time. Defaults to the number of available processors, set to 1 to run them one after
+   * another.
+   */
+  @Parameter(property = "wix.threads", defaultValue = "0")
+  protected int threads;
+
+  /**
+   * How many seconds a toolset executable may run before it is stopped and the build fails. 0 for
+   * no limit.
+   */
+  @Parameter(property = "wix.toolTimeout", defaultValue = "0")
+  protected int toolTimeout;
+
+  /**
+   * Timeouts in seconds for individual tools overriding toolTimeout, keyed by tool name such as
+   * candle, light, lit, heat, torch, pyro, smoke, insignia or wix.
+   */
+  @Parameter
+  protected Map<String, Integer> toolTimeouts;
+
+  /**
+   * Start toolset executables through the platform shell (cmd.exe /X /C on Windows), as earlier
+   * versions did, instead of directly. Batch files (.bat, .cmd) always go through the shell.
+   */
+  @Parameter(property = "wix.useShell", defaultValue = "false")
+  protected boolean useShell;
+
   /**
    * Harvest input sources directory
    */
@@ -206,6 +241,65 @@ public abstract class AbstractWixMojo extends AbstractMojo {
   @Parameter(property = "wix.toolDirectoryOverwrite", defaultValue = "true", required = true)
   protected boolean toolDirectoryOverwrite;
 
+  /**
+   * Extract the tools once per user into the toolset cache and use them from there, rather than
+   * into toolsPath of every module. Off by default; when set, toolsPath is not used. Only applies
+   * while toolDirectoryOverwrite is set.
+   */
+  @Parameter(property = "wix.toolCache", defaultValue = "false")
+  protected boolean toolCache;
+
+  /**
+   * Where the toolset cache keeps the extracted tools, shared by all builds of the user.
+   */
+  @Parameter(property = "wix.toolCacheDirectory", defaultValue = "${user.home}/.m2/wix-tools")
+  protected File toolCacheDirectory;
+
+  /** The toolset cache entry the tools are used from, once installed. */
+  private File toolCacheEntry;
+
+  /**
+   * Extract only the tools a goal runs, when first used, into the toolset cache rather than the
+   * whole toolset. Only applies with toolCache.
+   */
+  @Parameter(property = "wix.lazyTools", defaultValue = "false")
+  protected boolean lazyTools;
+
+  /**
+   * How long, in hours, a classifier of a wix dependency that was not found in any repository is
+   * remembered rather than looked up again. 0 always looks up. Snapshots and builds run with -U
+   * always look up.
+   */
+  @Parameter(property = "wix.missingArtifactTtl", defaultValue = "24")
+  protected int missingArtifactTtl;
+
+  private ToolsetCache toolsetCache;
+
+  /** Identifies the extracted toolset for the tool index, null when the tools were provided. */
+  private String toolsetKey;
+
+  /** The executables of the tool directory, opened once per execution. */
+  private ToolIndex toolIndex;
+
+  private ResolutionMisses resolutionMisses;
+
+  private PathRelativizer relativizer;
+
+  /** The files of the folders the goal selects sources from, walked once per execution. */
+  protected final FileSnapshots fileSnapshots = new FileSnapshots();
+
+  /** Options of the toolset whose value is a file or folder the tool writes. */
+  private static final List<String> OUTPUT_OPTIONS = Arrays.asList("-out", "-o", "-pdbout",
+      "-contentsfile", "-outputsfile", "-builtoutputsfile", "-trackingfile", "-intermediatefolder",
+      "-cc");
+
+  /** Where classifiers not found are remembered, in the tool cache directory. */
+  public static final String MISSING_ARTIFACTS_NAME = "missing-artifacts.properties";
+
+  /** The published wix.properties of wix dependencies, by file and time stamp. */
+  private static final Map<String, WixInfo> PUBLISHED_INFO =
+      new ConcurrentHashMap<String, WixInfo>();
+
   /**
    * Unpack directory for dependent wix objects
    */
@@ -281,12 +375,6 @@ public abstract class AbstractWixMojo extends AbstractMojo {
   @Parameter(defaultValue = "${plugin.artifacts}", readonly = true, required = true)
   private List pluginArtifacts;
 
-  /**
-   * The Zip archiver.
-   */
-  @Component(role = org.codehaus.plexus.archiver.UnArchiver.class, hint = "zip")
-  protected ZipUnArchiver zipUnArchiver;
-
   /**
    * To search for artifacts within the reactor and ensure consistent behaviour between Maven 2 and
    * Maven 3.
@@ -321,9 +409,13 @@ public abstract class AbstractWixMojo extends AbstractMojo {
    * <wixExtensions>
    *   <ext>WixToolset.UI.wixext</ext>
    *   <ext>WixToolset.Util.wixext</ext>
+   *   <ext>com.example.wix:WixToolset.Bal.wixext:nupkg:4.0.0</ext>
    * </wixExtensions>
    * }
    * </pre>
+   * 
+   * Entries given as Maven coordinates are resolved from the repositories like wixext and nupkg
+   * dependencies, unpacked into the extension store of the toolset cache and passed by path.
    */
   @Parameter
   protected Set<String> wixExtensions;
@@ -347,6 +439,9 @@ public abstract class AbstractWixMojo extends AbstractMojo {
   /** Lazily created command builder matching the detected {@link #wixVersion}. */
   private transient WixToolsetCommandBuilder commandBuilder;
 
+  /** Buffered log of the {@link WixTaskPool} task running on the current thread, if any. */
+  private final ThreadLocal<Log> taskLog = new ThreadLocal<Log>();
+
   public final String PACK_LIB = "wixlib";
   public final String PACK_MERGE = "msm";
   public final String PACK_INSTALL = "msi";
@@ -359,7 +454,7 @@ public abstract class AbstractWixMojo extends AbstractMojo {
    * 
    * @return detected WiX toolset version.
    */
-  protected WixToolsetVersion getWixVersion() {
+  protected synchronized WixToolsetVersion getWixVersion() {
     if (wixVersion == null) {
       wixVersion = WixToolsetVersion.detect(toolsPluginArtifactId);
       getLog().debug(
@@ -375,7 +470,7 @@ public abstract class AbstractWixMojo extends AbstractMojo {
    * 
    * @return command builder matching the active toolset version.
    */
-  protected WixToolsetCommandBuilder getCommandBuilder() {
+  protected synchronized WixToolsetCommandBuilder getCommandBuilder() {
     if (commandBuilder == null) {
       switch (getWixVersion()) {
         case V4_PLUS:
@@ -390,6 +485,194 @@ public abstract class AbstractWixMojo extends AbstractMojo {
     return commandBuilder;
   }
 
+  /**
+   * The log to write to, which while running a {@link WixTaskPool} task is that task's buffered log
+   * so its output stays together.
+   */
+  @Override
+  public Log getLog() {
+    Log log = taskLog.get();
+    return log != null ? log : super.getLog();
+  }
+
+  /**
+   * @return the mojo log, bypassing any task log of the current thread.
+   */
+  Log getMojoLog() {
+    return super.getLog();
+  }
+
+  void setTaskLog(Log log) {
+    if (log == null)
+      taskLog.remove();
+    else
+      taskLog.set(log);
+  }
+
+  /**
+   * Run a toolset executable, see {@link WixToolRunner}.
+   * 
+   * @param tool short tool name, used for messages and to look up toolTimeouts.
+   * @param cl the command line.
+   * @param out consumer of stdout lines.
+   * @param err consumer of stderr lines.
+   * @return the tool exit code.
+   * @throws CommandLineException if the tool could not be started.
+   * @throws MojoExecutionException if the tool timed out or the build was interrupted.
+   */
+  protected int runTool(String tool, Commandline cl, StreamConsumer out, StreamConsumer err)
+      throws CommandLineException, MojoExecutionException {
+    WixToolRunner.Result result;
+    try {
+      result =
+          new WixToolRunner(getLog(), useShell).run(tool, cl, out, err,
+              WixToolRunner.timeoutFor(tool, toolTimeout, toolTimeouts));
+    } finally {
+      invalidateOutputs(cl);
+    }
+    if (verbose)
+      getLog().info(tool + ": " + result);
+    return result.getExitCode();
+  }
+
+  /**
+   * Forget the file snapshots of the folders a tool may have written to, the values of its output
+   * options.
+   */
+  private void invalidateOutputs(Commandline cl) {
+    String[] args = cl.getArguments();
+    for (int i = 0; i + 1 < args.length; i++) {
+      if (OUTPUT_OPTIONS.contains(args[i].toLowerCase())) {
+        File output = new File(args[i + 1]);
+        if (!output.isAbsolute() && cl.getWorkingDirectory() != null)
+          output = new File(cl.getWorkingDirectory(), args[i + 1]);
+        fileSnapshots.invalidate(output);
+      }
+    }
+  }
+
+  /**
+   * Write a response file unless it already has the content.
+   * 
+   * @param file the response file.
+   * @param content the arguments.
+   * @throws MojoExecutionException if the file cannot be written.
+   */
+  protected void writeResponseFile(File file, ResponseFile content) throws MojoExecutionException {
+    try {
+      if (content.write(file)) {
+        getLog().debug("Wrote response file " + file.getPath());
+        fileSnapshots.invalidate(file);
+      } else
+        getLog().debug("Response file is up to date " + file.getPath());
+    } catch (IOException ex) {
+      throw new MojoExecutionException("Failed to create a response file: " + ex.getMessage(), ex);
+    }
+  }
+
+  /**
+   * Digest of a tool command line: the executable with its size and time, the arguments, the
+   * content of response files (@file) and the size and time of extensions passed by absolute path.
+   * 
+   * @param cl a tool command line.
+   * @return the digest as hex.
+   * @throws MojoExecutionException if a response file cannot be read.
+   */
+  protected String fingerprint(Commandline cl) throws MojoExecutionException {
+    MessageDigest digest = InputManifest.newDigest();
+    File executable = new File(cl.getLiteralExecutable());
+    updateDigest(digest, executable.getAbsolutePath() + " " + InputManifest.stamp(executable));
+    try {
+      String previous = null;
+      for (String arg : cl.getArguments()) {
+        updateDigest(digest, arg);
+        if (arg.startsWith("@")) {
+          File responseFile = new File(arg.substring(1));
+          if (responseFile.isFile())
+            updateDigest(digest, FileUtils.fileRead(responseFile, "UTF-8"));
+        } else if ("-ext".equals(previous)) {
+          File file = new File(arg);
+          if (file.isAbsolute() && file.isFile())
+            updateDigest(digest, InputManifest.stamp(file));
+        }
+        previous = arg;
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to fingerprint " + cl.getLiteralExecutable(), e);
+    }
+    return InputManifest.toHex(digest.digest());
+  }
+
+  private static void updateDigest(MessageDigest digest, String text) {
+    digest.update(text.getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) '\n');
+  }
+
+  /**
+   * @param cl a tool command line.
+   * @return the executable name without extension, such as light or wix.
+   */
+  protected static String toolName(Commandline cl) {
+    String name = new File(cl.getLiteralExecutable()).getName();
+    int dot = name.lastIndexOf('.');
+    return (dot > 0 ? name.substring(0, dot) : name).toLowerCase(Locale.ROOT);
+  }
+
+  /**
+   * The usual handling of tool stdout, lines with the error or warning marker are logged at that
+   * level, the rest at info when verbose otherwise debug.
+   * 
+   * @param errorMarker text identifying an error line, such as " : error ".
+   * @param warningMarker text identifying a warning line.
+   * @return a consumer logging the tool output.
+   */
+  protected StreamConsumer toolOutput(final String errorMarker, final String warningMarker) {
+    return new StreamConsumer() {
+
+      public void consumeLine(final String line) {
+        if (line.contains(errorMarker)) {
+          getLog().error(line);
+        } else if (line.contains(warningMarker)) {
+          getLog().warn(line);
+        } else if (verbose) {
+          getLog().info(line);
+        } else {
+          getLog().debug(line);
+        }
+      }
+
+    };
+  }
+
+  /**
+   * @return a consumer logging each line of tool stderr as error.
+   */
+  protected StreamConsumer toolErrors() {
+    return new StreamConsumer() {
+
+      public void consumeLine(final String line) {
+        getLog().error(line);
+      }
+
+    };
+  }
+
+  /**
+   * @return the number of tool invocations that may run at the same time, at least 1.
+   */
+  protected int getThreads() {
+    return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+  }
+
+  /**
+   * Create a pool to run independent tasks of this mojo, sized by {@link #getThreads()}.
+   * 
+   * @return an empty task pool.
+   */
+  protected WixTaskPool createTaskPool() {
+    return new WixTaskPool(this, getThreads());
+  }
+
   protected Set<String> getPlatforms() {
     if (platforms == null)
       platforms = new HashSet<String>();
@@ -451,8 +734,57 @@ public abstract class AbstractWixMojo extends AbstractMojo {
         pluginArtifactId));
   }
 
+  /**
+   * @return the folder of the tools, the toolset cache entry when the cache is used.
+   * @throws MojoExecutionException if the tools cannot be extracted into the cache.
+   */
+  protected synchronized File getToolDirectory() throws MojoExecutionException {
+    if (!toolCache || !toolDirectoryOverwrite)
+      return toolDirectory;
+    if (toolCacheEntry == null) {
+      toolsetCache =
+          new ToolsetCache(toolCacheDirectory, findToolsArtifacts(), getCommandBuilder()
+              .getToolSubdirectory(), getLog());
+      toolCacheEntry = lazyTools ? toolsetCache.getLazyEntry() : toolsetCache.install();
+      toolsetKey = toolsetCache.getKey();
+    }
+    return toolCacheEntry;
+  }
+
+  /**
+   * Resolve a tool executable, extracting it first when the tools are extracted lazily.
+   * 
+   * @param toolName logical name, such as candle or heat.
+   * @return the executable.
+   * @throws MojoExecutionException if the tools cannot be extracted.
+   */
+  protected File resolveTool(String toolName) throws MojoExecutionException {
+    File directory = getToolDirectory();
+    if (lazyTools && toolsetCache != null)
+      toolsetCache.installTool(getCommandBuilder().getToolExecutableName(toolName));
+    return getCommandBuilder().resolveToolExecutable(directory, getToolIndex(directory), toolName);
+  }
+
+  private synchronized ToolIndex getToolIndex(File directory) {
+    if (toolIndex == null)
+      toolIndex = ToolIndex.open(directory, getToolIndexFile(directory), toolsetKey);
+    return toolIndex;
+  }
+
+  /**
+   * The index is kept in the toolset cache entry, otherwise in the build directory, never in a tool
+   * directory that may belong to the user.
+   */
+  private File getToolIndexFile(File directory) {
+    if (directory.equals(toolCacheEntry))
+      return new File(directory, ToolIndex.INDEX_FILE);
+    return new File(project.getBuild().getDirectory(), ToolIndex.INDEX_FILE);
+  }
+
   protected void unpackFileBasedResources() throws MojoExecutionException {
-    if (toolDirectoryOverwrite) {
+    if (toolCache && toolDirectoryOverwrite) {
+      getLog().debug("Using tools from " + getToolDirectory());
+    } else if (toolDirectoryOverwrite) {
       getLog().debug("unpacking binaries");
 
       Artifact[] tools = findToolsArtifacts();
@@ -466,7 +798,8 @@ public abstract class AbstractWixMojo extends AbstractMojo {
 
         getLog().debug(String.format("Using tools jar %1$s", pluginJar));
 
-        zipUnArchiver.setSourceFile(pluginJar);
+        // an unarchiver per jar, the archiver component is shared by parallel builds
+        ZipUnArchiver zipUnArchiver = new ZipUnArchiver(pluginJar);
 
         getLog().info(
             String.format("Extracting %3$s %1$s to %2$s", pluginJar, toolDirectory, subfolder));
@@ -481,6 +814,16 @@ public abstract class AbstractWixMojo extends AbstractMojo {
       if (!toolDirectory.exists()) {
         throw new MojoExecutionException("Error extracting resources from mapping-tools.");
       }
+      try {
+        toolsetKey = ToolsetCache.key(tools, subfolder);
+      } catch (IOException e) {
+        throw new MojoExecutionException("Unable to read the toolset", e);
+      }
+      File indexFile = getToolIndexFile(toolDirectory);
+      ToolIndex.invalidate(toolDirectory, indexFile);
+      synchronized (this) {
+        toolIndex = ToolIndex.open(toolDirectory, indexFile, toolsetKey);
+      }
     } else {
       if (!toolDirectory.exists()) {
         throw new MojoExecutionException(String.format(
@@ -509,10 +852,11 @@ public abstract class AbstractWixMojo extends AbstractMojo {
 
   protected ArtifactResult resolveArtifact(org.eclipse.aether.artifact.Artifact artifact)
       throws MojoExecutionException {
-    ArtifactRequest request = new ArtifactRequest(artifact, remoteRepos, null); // Artifact.SCOPE_COMPILE
     ArtifactResult result = null;
     try {
-      result = repoSystem.resolveArtifact(repoSession, request);
+      result =
+          ArtifactResolutionCache.get(repoSession).resolve(repoSystem, repoSession, remoteRepos,
+              artifact);
     } catch (ArtifactResolutionException e) {
       throw new MojoExecutionException("Unable to resolve artifact.", e);
       // } catch (ArtifactNotFoundException e) {
@@ -527,17 +871,54 @@ public abstract class AbstractWixMojo extends AbstractMojo {
 
   protected void addWixExtensions(Commandline cl) throws MojoExecutionException {
     Set<Artifact> dependentExtensions = getExtDependencySets();
-    getLog().info("Adding " + dependentExtensions.size() + " dependentExtensions");
-    if (getWixVersion() == WixToolsetVersion.V4_PLUS
-        && (wixExtensions == null || wixExtensions.isEmpty()) && !dependentExtensions.isEmpty()) {
-      getLog()
-          .warn(
-              "WiX v4 mode detected but <wixExtensions> is empty while Maven wixext "
-                  + "dependencies were found. Migrate to <wixExtensions> with NuGet-style extension names.");
+    // once per command line, which is built for each cell, shard and fingerprint
+    getLog().debug("Adding " + dependentExtensions.size() + " dependentExtensions");
+    if (getWixVersion() == WixToolsetVersion.V4_PLUS) {
+      getCommandBuilder().addExtensions(cl, Collections.<Artifact>emptySet(),
+          getV4Extensions(dependentExtensions));
+      return;
     }
     getCommandBuilder().addExtensions(cl, dependentExtensions, wixExtensions);
   }
 
+  /**
+   * The v4+ extensions to pass to wix build: the assemblies of wixext and nupkg dependencies, and
+   * of wixExtensions given as Maven coordinates (groupId:artifactId:nupkg:version), from the
+   * extension store, followed by the wixExtensions names installed through NuGet.
+   * 
+   * @param dependentExtensions the wixext and nupkg dependencies.
+   * @return extension paths and names.
+   * @throws MojoExecutionException if an extension cannot be resolved or unpacked.
+   */
+  protected Set<String> getV4Extensions(Set<Artifact> dependentExtensions)
+      throws MojoExecutionException {
+    ExtensionStore store = new ExtensionStore(new File(toolCacheDirectory, "extensions"));
+    Set<String> extensions = new LinkedHashSet<String>();
+    for (Artifact ext : dependentExtensions) {
+      extensions.add(store.resolve(ext.getFile()).getAbsolutePath());
+    }
+    if (wixExtensions != null) {
+      for (String ext : wixExtensions) {
+        if (isExtensionCoordinates(ext)) {
+          File file = resolveArtifact(new DefaultArtifact(ext)).getArtifact().getPath().toFile();
+          extensions.add(store.resolve(file).getAbsolutePath());
+        } else {
+          extensions.add(ext);
+        }
+      }
+    }
+    return extensions;
+  }
+
+  /**
+   * @param ext a wixExtensions entry.
+   * @return true for Maven coordinates, rather than a NuGet package id such as
+   *         WixToolset.UI.wixext/4.0.0.
+   */
+  protected static boolean isExtensionCoordinates(String ext) {
+    return ext.indexOf(':') > 0;
+  }
+
   protected File getOutput(File baseDir, String arch, String culture, String extension) {
 
     File outFile = getOutputPath(baseDir, arch, culture);
@@ -561,132 +942,123 @@ public abstract class AbstractWixMojo extends AbstractMojo {
     return outFile;
   }
 
-  @SuppressWarnings("unchecked")
   protected Set<Artifact> getExtDependencySets() throws MojoExecutionException {
-    // add filters in well known order, least specific to most specific
-    FilterArtifacts filter = new FilterArtifacts();
-
-    filter.addFilter(new ProjectTransitivityFilter(project.getDependencyArtifacts(), false));
-
-    // filter.addFilter( new ScopeFilter( DependencyUtil.cleanToBeTokenizedString( this.includeScope
-    // ),
-    // DependencyUtil.cleanToBeTokenizedString( this.excludeScope ) ) );
-    //
-    // filter.addFilter( new TypeFilter( DependencyUtil.cleanToBeTokenizedString( this.includeTypes
-    // ),
-    // DependencyUtil.cleanToBeTokenizedString( this.excludeTypes ) ) );
-    //
-    // filter.addFilter( new ClassifierFilter( DependencyUtil.cleanToBeTokenizedString(
-    // this.includeClassifiers ),
-    // DependencyUtil.cleanToBeTokenizedString( this.excludeClassifiers ) ) );
-    //
-    // filter.addFilter( new GroupIdFilter( DependencyUtil.cleanToBeTokenizedString(
-    // this.includeGroupIds ),
-    // DependencyUtil.cleanToBeTokenizedString( this.excludeGroupIds ) ) );
-    //
-    // filter.addFilter( new ArtifactIdFilter( DependencyUtil.cleanToBeTokenizedString(
-    // this.includeArtifactIds ),
-    // DependencyUtil.cleanToBeTokenizedString( this.excludeArtifactIds ) ) );
-
-    filter.addFilter(new TypeFilter("wixext,wixExt", ""));
-    // String clasfilter = arch+"-"+culture+","+arch+"-neutral";
-    // getLog().debug(clasfilter);
-    // filter.addFilter( new ClassifierFilter( clasfilter, "" ) );
-
-    // start with all artifacts.
-    Set<Artifact> artifacts = project.getArtifacts();
-
-    // perform filtering
-    try {
-      artifacts = filter.filter(artifacts);
-    } catch (ArtifactFilterException e) {
-      throw new MojoExecutionException(e.getMessage(), e);
-    }
-
-    return artifacts;
+    DependencyIndex index = DependencyIndex.get(project);
+    // v4+ extensions may also come as NuGet packages
+    if (getWixVersion() == WixToolsetVersion.V4_PLUS)
+      return index.get(DependencyIndex.Role.WIX_EXTENSION, DependencyIndex.Role.NUGET_EXTENSION);
+    return index.get(DependencyIndex.Role.WIX_EXTENSION);
   }
 
   protected void addToolsetGeneralOptions(Commandline cl) {
     getCommandBuilder().addGeneralOptions(cl, verbose, suppress, warn);
   }
 
-  @SuppressWarnings("unchecked")
   protected Set<Artifact> getJARDependencySets() throws MojoExecutionException {
-    FilterArtifacts filter = new FilterArtifacts();
-    // filter.addFilter(new ProjectTransitivityFilter(project.getDependencyArtifacts(), true));
-    filter.addFilter(new TypeFilter("jar", ""));
+    return DependencyIndex.get(project).get(DependencyIndex.Role.JAR);
+  }
 
-    // start with all artifacts.
-    Set<Artifact> artifacts = project.getArtifacts();
+  protected Set<Artifact> getNPANDAYDependencySets() throws MojoExecutionException {
+    return DependencyIndex.get(project).get(DependencyIndex.Role.NPANDAY,
+        DependencyIndex.Role.NPANDAY_CONFIG);
+  }
 
-    // perform filtering
-    try {
-      artifacts = filter.filter(artifacts);
-    } catch (ArtifactFilterException e) {
-      throw new MojoExecutionException(e.getMessage(), e);
-    }
+  protected Set<Artifact> getWixDependencySets() throws MojoExecutionException {
+    return DependencyIndex.get(project).get(DependencyIndex.Role.WIX_PACKAGE);
+  }
 
-    return artifacts;
+  protected File wixUnpackDirectory(Artifact wixArtifact) {
+    return new File(unpackDirectory, wixArtifact.getGroupId() + "-" + wixArtifact.getArtifactId()
+        + "-" + wixArtifact.getBaseVersion());
   }
 
-  @SuppressWarnings("unchecked")
-  protected Set<Artifact> getNPANDAYDependencySets() throws MojoExecutionException {
-    FilterArtifacts filter = new FilterArtifacts();
-    // Cannot do this filter in maven3 as it blocks classifiers - works in maven 2.
-    // filter.addFilter(new ProjectTransitivityFilter(project.getDependencyArtifacts(), true));
-    filter
-        .addFilter(new TypeFilter(
-            "dotnet-library,dll,dotnet-library-config,dll.config,dotnet-executable,exe,dotnet-executable-config,exe.config",
-            ""));
-
-    // start with all artifacts.
-    Set<Artifact> artifacts = project.getArtifacts();
-
-    // perform filtering
-    try {
-      artifacts = filter.filter(artifacts);
-    } catch (ArtifactFilterException e) {
-      throw new MojoExecutionException(e.getMessage(), e);
-    }
+  /**
+   * Marks the unpack directory of a dependency with the checksum of the artifact and the patterns
+   * it was unpacked with.
+   */
+  public static final String UNPACK_MARKER_NAME = ".wix-unpacked";
 
-    return artifacts;
-  }
+  /** Session data key, set once unpack-dependencies ran for a project. */
+  private static final String UNPACKED_SESSION_KEY = "wix-maven-plugin.unpacked:";
 
-  @SuppressWarnings("unchecked")
-  protected Set<Artifact> getWixDependencySets() throws MojoExecutionException {
-    FilterArtifacts filter = new FilterArtifacts();
-    filter.addFilter(new ProjectTransitivityFilter(project.getDependencyArtifacts(), true));
-    filter.addFilter(new TypeFilter("wixlib,msm,msp,msi,bundle,msix", null));
-    filter.addFilter(new ClassifierFilter("x86,x64,intel,intel64,ia64", null) {
-      /*
-       * (non-Javadoc)
-       * 
-       * @see
-       * org.apache.maven.plugin.dependency.utils.filters.AbstractArtifactFeatureFilter#compareFeatures
-       * (String,String)
-       */
-
-      protected boolean compareFeatures(String lhs, String rhs) {
-        return lhs == null || lhs.startsWith(rhs);
+  /**
+   * Unpack resources of a dependency into its unpack directory, unless the marker shows they were
+   * unpacked from the same artifact with the same patterns.
+   * 
+   * @param libGroup the dependency.
+   * @param includes patterns of the files to unpack.
+   * @param excludes patterns of the files not to unpack, may be null.
+   * @return true if the dependency was unpacked, false if it was up to date.
+   * @throws MojoExecutionException if the artifact cannot be read or unpacked.
+   */
+  protected boolean unpackResource(Artifact libGroup, String[] includes, String[] excludes)
+      throws MojoExecutionException {
+    if (excludes != null && StringUtils.isEmpty(StringUtils.join(excludes, "")))
+      excludes = null;
+    File resUnpackDirectory = wixUnpackDirectory(libGroup);
+    File marker = new File(resUnpackDirectory, UNPACK_MARKER_NAME);
+    String stamp;
+    try {
+      stamp =
+          InputManifest.digest(libGroup.getFile()) + " " + Arrays.toString(includes) + " "
+              + Arrays.toString(excludes);
+      if (marker.isFile() && stamp.equals(FileUtils.fileRead(marker, "UTF-8"))) {
+        getLog().debug("Resources of " + libGroup + " already unpacked");
+        return false;
       }
-    });
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to read " + libGroup.getFile(), e);
+    }
 
-    // start with all artifacts.
-    Set<Artifact> artifacts = project.getArtifacts();
+    if (!resUnpackDirectory.exists())
+      resUnpackDirectory.mkdirs();
+    marker.delete();
 
-    // perform filtering
     try {
-      artifacts = filter.filter(artifacts);
-    } catch (ArtifactFilterException e) {
-      throw new MojoExecutionException(e.getMessage(), e);
+      int count =
+          new DependencyUnpacker(includes, excludes).unpack(libGroup.getFile(), resUnpackDirectory);
+      getLog().debug(String.format("Unpacked %1$d files of %2$s", count, libGroup));
+      FileUtils.fileWrite(marker, "UTF-8", stamp);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to unpack " + libGroup.getFile(), e);
+    }
+    return true;
+  }
+
+  /**
+   * Unpack resources of the unclassified wix dependencies, several at the same time.
+   * 
+   * @param includes patterns of the files to unpack.
+   * @param excludes patterns of the files not to unpack, may be null.
+   * @throws MojoExecutionException if a dependency cannot be unpacked.
+   */
+  protected void unpackResources(final String[] includes, final String[] excludes)
+      throws MojoExecutionException {
+    WixTaskPool pool = createTaskPool();
+    for (final Artifact libGroup : DependencyIndex.get(project).getUnclassified(
+        DependencyIndex.Role.WIX_PACKAGE)) {
+      pool.add(libGroup.getId(), new WixTaskPool.Task() {
+        public void execute() throws MojoExecutionException {
+          getLog().debug("Attempting to unpack resources for " + libGroup.toString());
+          unpackResource(libGroup, includes, excludes);
+        }
+      });
     }
+    pool.execute();
+  }
 
-    return artifacts;
+  /**
+   * Note that unpack-dependencies ran for this project in the current session.
+   */
+  protected void setDependenciesUnpacked() {
+    repoSession.getData().set(UNPACKED_SESSION_KEY + project.getId(), Boolean.TRUE);
   }
 
-  protected File wixUnpackDirectory(Artifact wixArtifact) {
-    return new File(unpackDirectory, wixArtifact.getGroupId() + "-" + wixArtifact.getArtifactId()
-        + "-" + wixArtifact.getBaseVersion());
+  /**
+   * @return true if unpack-dependencies already ran for this project in the current session.
+   */
+  protected boolean isDependenciesUnpacked() {
+    return Boolean.TRUE.equals(repoSession.getData().get(UNPACKED_SESSION_KEY + project.getId()));
   }
 
   public static final String getPrimaryCulture(String culturespec) {
@@ -725,7 +1097,7 @@ public abstract class AbstractWixMojo extends AbstractMojo {
 
   protected String getRelative(File target) {
     try {
-      String relPath = getRelativePath(relativeBase.getCanonicalPath(), target);
+      String relPath = getRelativizer().relativize(target);
       if (relPath.length() < target.getAbsolutePath().length())
         return relPath;
     } catch (IOException ex) {
@@ -733,6 +1105,228 @@ public abstract class AbstractWixMojo extends AbstractMojo {
     return target.getPath();
   }
 
+  private synchronized PathRelativizer getRelativizer() throws IOException {
+    if (relativizer == null)
+      relativizer = new PathRelativizer(relativeBase);
+    return relativizer;
+  }
+
+  /**
+   * Resolve the related artifacts of all the cells in one batch, so {@link #getRelatedArtifacts}
+   * finds them in the session cache rather than asking the resolver for each classifier of each
+   * cell.
+   * 
+   * @param artifactItems the wix dependencies.
+   * @param arches the target architectures.
+   * @param cultures the target cultures, null for neutral.
+   */
+  protected void resolveRelatedArtifacts(Collection<Artifact> artifactItems,
+      Collection<String> arches, Collection<String> cultures) throws MojoExecutionException {
+    List<org.eclipse.aether.artifact.Artifact> artifacts =
+        new ArrayList<org.eclipse.aether.artifact.Artifact>();
+    for (Artifact artifactItem : artifactItems) {
+      if (!isRelatedType(artifactItem))
+        continue;
+      VersionRange vr = relatedVersionRange(artifactItem);
+      WixInfo info = getPublishedInfo(artifactItem);
+      Set<String> classifiers = new LinkedHashSet<String>();
+      for (String arch : arches) {
+        if (isPublished(info, arch, null))
+          classifiers.add(relatedClassifier(arch, null));
+        for (String culture : cultures) {
+          if (culture != null && isPublished(info, arch, culture))
+            classifiers.add(relatedClassifier(arch, culture));
+        }
+      }
+      for (String classifier : classifiers) {
+        if (!isRecentlyMissing(artifactItem, info, vr, classifier))
+          artifacts.add(new DefaultArtifact(artifactItem.getGroupId(),
+              artifactItem.getArtifactId(), classifier, artifactItem.getType(), vr.toString()));
+      }
+    }
+    ArtifactResolutionCache.get(repoSession).resolveAll(repoSystem, repoSession, remoteRepos,
+        artifacts);
+  }
+
+  /**
+   * Resolve one classifier of a wix dependency, unless the wix.properties of the dependency shows
+   * it was not built for the architecture and culture, or it was recently not found.
+   */
+  private void resolveRelatedArtifact(Artifact artifactItem, Set<Artifact> artifactSet,
+      VersionRange vr, String arch, String culture) throws MojoExecutionException {
+    String classifier = relatedClassifier(arch, culture);
+    String coordinates = relatedCoordinates(artifactItem, vr, classifier);
+    WixInfo info = getPublishedInfo(artifactItem);
+    if (!isPublished(info, arch, culture))
+      throw new MojoExecutionException(coordinates + " is not built by the dependency");
+    if (isRecentlyMissing(artifactItem, info, vr, classifier))
+      throw new MojoExecutionException(coordinates + " was recently not found");
+    try {
+      resolveArtifact(artifactItem.getGroupId(), artifactItem.getArtifactId(),
+          artifactItem.getType(), artifactSet, vr, classifier);
+    } catch (MojoExecutionException e) {
+      if (isNotFound(e))
+        getResolutionMisses().recordMissing(coordinates);
+      throw e;
+    }
+  }
+
+  /**
+   * A recorded miss only saves a remote lookup, so it is ignored when the classifier is in the
+   * local repository, or when the published wix.properties lists it.
+   * 
+   * @return true if the classifier was recently not found and there is nothing to say it now
+   *         exists.
+   */
+  private boolean isRecentlyMissing(Artifact artifactItem, WixInfo info, VersionRange vr,
+      String classifier) {
+    if (!getResolutionMisses().isMissing(relatedCoordinates(artifactItem, vr, classifier)))
+      return false;
+    if (isListed(info, classifier))
+      return false;
+    if (vr.getRecommendedVersion() == null)
+      return true;
+    LocalArtifactResult local =
+        repoSession.getLocalRepositoryManager().find(
+            repoSession,
+            new LocalArtifactRequest(new DefaultArtifact(artifactItem.getGroupId(), artifactItem
+                .getArtifactId(), classifier, artifactItem.getType(), vr.getRecommendedVersion()
+                .toString()), remoteRepos, null));
+    return local.getPath() == null || !Files.isRegularFile(local.getPath());
+  }
+
+  /**
+   * @return true only if the published properties list both the platform and the culture of the
+   *         classifier, unlike {@link #isPublished} which assumes anything not ruled out exists.
+   */
+  private static boolean isListed(WixInfo info, String classifier) {
+    String platforms = info.getPlatform();
+    String cultures = info.getCulture();
+    if (platforms == null || platforms.trim().isEmpty() || cultures == null
+        || cultures.trim().isEmpty())
+      return false;
+    for (String platform : platforms.split(",")) {
+      for (String culture : cultures.split(",")) {
+        if (classifier.equalsIgnoreCase(platform.trim() + "-" + getPrimaryCulture(culture.trim())))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return true if the failure is only that the artifact is not in any repository, rather than
+   *         that a repository could not be reached.
+   */
+  private boolean isNotFound(MojoExecutionException e) {
+    if (repoSession.isOffline() || !(e.getCause() instanceof ArtifactResolutionException))
+      return false;
+    boolean notFound = false;
+    for (ArtifactResult result : ((ArtifactResolutionException) e.getCause()).getResults()) {
+      for (Exception cause : result.getExceptions()) {
+        if (!(cause instanceof ArtifactNotFoundException))
+          return false;
+        notFound = true;
+      }
+    }
+    return notFound;
+  }
+
+  private synchronized ResolutionMisses getResolutionMisses() {
+    if (resolutionMisses == null) {
+      // -U asks to look everything up again
+      long timeToLive =
+          RepositoryPolicy.UPDATE_POLICY_ALWAYS.equals(repoSession.getUpdatePolicy()) ? 0
+              : missingArtifactTtl * 60L * 60L * 1000L;
+      resolutionMisses =
+          new ResolutionMisses(new File(toolCacheDirectory, MISSING_ARTIFACTS_NAME), timeToLive);
+    }
+    return resolutionMisses;
+  }
+
+  /**
+   * Read the wix.properties the main artifact of a wix dependency was packaged with, recording the
+   * platforms and cultures it was built for.
+   * 
+   * @param artifactItem a wix dependency.
+   * @return the published properties, empty when the dependency has none.
+   * @throws MojoExecutionException if the properties cannot be created.
+   */
+  protected WixInfo getPublishedInfo(Artifact artifactItem) throws MojoExecutionException {
+    File file = artifactItem.getFile();
+    if (artifactItem.hasClassifier() || file == null || !file.isFile())
+      return new WixInfo(artifactItem.getGroupId(), artifactItem.getArtifactId(),
+          artifactItem.getVersion());
+
+    String key = file.getAbsolutePath() + "|" + InputManifest.stamp(file);
+    WixInfo info = PUBLISHED_INFO.get(key);
+    if (info == null) {
+      info =
+          new WixInfo(artifactItem.getGroupId(), artifactItem.getArtifactId(),
+              artifactItem.getVersion());
+      try {
+        JarFile jar = new JarFile(file);
+        try {
+          if (info.exists(jar))
+            info.read(jar);
+        } finally {
+          jar.close();
+        }
+      } catch (IOException e) {
+        getLog().debug("No wix.properties read from " + file + ": " + e.getMessage());
+      }
+      PUBLISHED_INFO.put(key, info);
+    }
+    return info;
+  }
+
+  /**
+   * @return false only if the published properties show the classifier was not built.
+   */
+  private static boolean isPublished(WixInfo info, String arch, String culture) {
+    String platforms = info.getPlatform();
+    if (platforms != null && !platforms.trim().isEmpty()) {
+      boolean found = false;
+      for (String platform : platforms.split(",")) {
+        found |= platform.trim().equalsIgnoreCase(arch);
+      }
+      if (!found)
+        return false;
+    }
+    String cultures = info.getCulture();
+    if (cultures != null && !cultures.trim().isEmpty()) {
+      String wanted = culture == null ? "neutral" : getPrimaryCulture(culture);
+      for (String published : cultures.split(",")) {
+        if (getPrimaryCulture(published.trim()).equalsIgnoreCase(wanted))
+          return true;
+      }
+      return false;
+    }
+    return true;
+  }
+
+  private static VersionRange relatedVersionRange(Artifact artifactItem) {
+    try {
+      return VersionRange.createFromVersionSpec(artifactItem.getVersion());
+    } catch (InvalidVersionSpecificationException e1) {
+      return VersionRange.createFromVersion(artifactItem.getVersion());
+    }
+  }
+
+  private static String relatedCoordinates(Artifact artifactItem, VersionRange vr, String classifier) {
+    return artifactItem.getGroupId() + ":" + artifactItem.getArtifactId() + ":"
+        + artifactItem.getType() + ":" + classifier + ":" + vr;
+  }
+
+  private boolean isRelatedType(Artifact artifactItem) {
+    return PACK_LIB.equalsIgnoreCase(artifactItem.getType())
+        || PACK_MERGE.equalsIgnoreCase(artifactItem.getType());
+  }
+
+  private static String relatedClassifier(String arch, String culture) {
+    return arch + "-" + (culture == null ? "neutral" : getPrimaryCulture(culture));
+  }
+
   /**
    * Based on Maven-dependency-plugin AbstractFromConfigurationMojo.
    * 
@@ -753,21 +1347,13 @@ public abstract class AbstractWixMojo extends AbstractMojo {
 
     // Map managedVersions = createManagedVersionMap( factory, project.getId(),
     // project.getDependencyManagement() );
-    VersionRange vr;
-    try {
-      vr = VersionRange.createFromVersionSpec(artifactItem.getVersion());
-    } catch (InvalidVersionSpecificationException e1) {
-      vr = VersionRange.createFromVersion(artifactItem.getVersion());
-    }
+    VersionRange vr = relatedVersionRange(artifactItem);
 
-    if (PACK_LIB.equalsIgnoreCase(artifactItem.getType())
-        || PACK_MERGE.equalsIgnoreCase(artifactItem.getType())) {
+    if (isRelatedType(artifactItem)) {
       boolean hasSomething = true;
       // even if this module has culture it's base modules may be neutral
       try {
-        String classifier = arch + "-" + "neutral";
-        resolveArtifact(artifactItem.getGroupId(), artifactItem.getArtifactId(),
-            artifactItem.getType(), artifactSet, vr, classifier);
+        resolveRelatedArtifact(artifactItem, artifactSet, vr, arch, null);
       } catch (MojoExecutionException e) {
         if (culture == null)
           throw e;
@@ -776,9 +1362,7 @@ public abstract class AbstractWixMojo extends AbstractMojo {
 
       if (culture != null) {
         try {
-          String classifier = arch + "-" + getPrimaryCulture(culture);
-          resolveArtifact(artifactItem.getGroupId(), artifactItem.getArtifactId(),
-              artifactItem.getType(), artifactSet, vr, classifier);
+          resolveRelatedArtifact(artifactItem, artifactSet, vr, arch, culture);
         } catch (MojoExecutionException e) {
           if (hasSomething == false)
             throw e;
@@ -842,94 +1426,7 @@ public abstract class AbstractWixMojo extends AbstractMojo {
    */
   public static String getRelativePath(final String base, final File targetFile) {
     try {
-      //
-      // remove trailing file separator
-      //
-      String canonicalBase = base;
-      if (base.charAt(base.length() - 1) != File.separatorChar) {
-        canonicalBase = base + File.separatorChar;
-      }
-      //
-      // get canonical name of target
-      //
-      String canonicalTarget;
-      // if (System.getProperty("os.name").equals("OS/400"))
-      // canonicalTarget = targetFile.getPath();
-      // else
-      canonicalTarget = targetFile.getCanonicalPath();
-      if (canonicalBase.startsWith(canonicalTarget + File.separatorChar)) {
-        canonicalTarget = canonicalTarget + File.separator;
-      }
-      if (canonicalTarget.equals(canonicalBase)) {
-        return ".";
-      }
-      //
-      // see if the prefixes are the same
-      //
-      if (canonicalBase.substring(0, 2).equals("\\\\")) {
-        //
-        // UNC file name, if target file doesn't also start with same
-        // server name, don't go there
-        int endPrefix = canonicalBase.indexOf('\\', 2);
-        String prefix1 = canonicalBase.substring(0, endPrefix);
-        String prefix2 = canonicalTarget.substring(0, endPrefix);
-        if (!prefix1.equals(prefix2)) {
-          return canonicalTarget;
-        }
-      } else {
-        if (canonicalBase.substring(1, 3).equals(":\\")) {
-          int endPrefix = 2;
-          String prefix1 = canonicalBase.substring(0, endPrefix);
-          String prefix2 = canonicalTarget.substring(0, endPrefix);
-          if (!prefix1.equals(prefix2)) {
-            return canonicalTarget;
-          }
-        } else {
-          if (canonicalBase.charAt(0) == '/') {
-            if (canonicalTarget.charAt(0) != '/') {
-              return canonicalTarget;
-            }
-          }
-        }
-      }
-      char separator = File.separatorChar;
-      int lastCommonSeparator = -1;
-      int minLength = canonicalBase.length();
-      if (canonicalTarget.length() < minLength) {
-        minLength = canonicalTarget.length();
-      }
-      //
-      // walk to the shorter of the two paths
-      // finding the last separator they have in common
-      for (int i = 0; i < minLength; i++) {
-        if (canonicalTarget.charAt(i) == canonicalBase.charAt(i)) {
-          if (canonicalTarget.charAt(i) == separator) {
-            lastCommonSeparator = i;
-          }
-        } else {
-          break;
-        }
-      }
-      StringBuffer relativePath = new StringBuffer(50);
-      //
-      // walk from the first difference to the end of the base
-      // adding "../" for each separator encountered
-      //
-      for (int i = lastCommonSeparator + 1; i < canonicalBase.length(); i++) {
-        if (canonicalBase.charAt(i) == separator) {
-          if (relativePath.length() > 0) {
-            relativePath.append(separator);
-          }
-          relativePath.append("..");
-        }
-      }
-      if (canonicalTarget.length() > lastCommonSeparator + 1) {
-        if (relativePath.length() > 0) {
-          relativePath.append(separator);
-        }
-        relativePath.append(canonicalTarget.substring(lastCommonSeparator + 1));
-      }
-      return relativePath.toString();
+      return PathRelativizer.relativize(base, targetFile.getCanonicalPath());
     } catch (IOException ex) {
     }
     return targetFile.toString();
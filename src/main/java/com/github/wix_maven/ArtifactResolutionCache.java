@@ -0,0 +1,130 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+
+/**
+ * Artifacts resolved during the Maven session, kept in the data of the repository session so every
+ * mojo and reactor module asks the resolver once for the same coordinates.
+ * <p>
+ * Both outcomes are kept: an artifact that cannot be resolved, such as a culture classifier a
+ * wixlib was not built for, fails the same way without asking again. Coordinates needed together
+ * can be resolved in one batch.
+ */
+public class ArtifactResolutionCache {
+
+  private static final String SESSION_KEY = "wix-maven-plugin.resolved";
+
+  /** An ArtifactResult or the ArtifactResolutionException, by coordinates. */
+  private final Map<String, Object> results = new ConcurrentHashMap<String, Object>();
+
+  /**
+   * @param session the repository session of the build.
+   * @return the cache of the session, created by the first mojo to ask.
+   */
+  public static ArtifactResolutionCache get(RepositorySystemSession session) {
+    ArtifactResolutionCache cache = (ArtifactResolutionCache) session.getData().get(SESSION_KEY);
+    if (cache == null) {
+      session.getData().set(SESSION_KEY, null, new ArtifactResolutionCache());
+      cache = (ArtifactResolutionCache) session.getData().get(SESSION_KEY);
+    }
+    return cache;
+  }
+
+  /**
+   * Resolve the artifacts not already known in one request to the resolver. Failures are kept and
+   * reported when the artifact is asked for.
+   * 
+   * @param system the repository system.
+   * @param session the repository session.
+   * @param repositories the remote repositories to resolve from.
+   * @param artifacts the artifacts needed.
+   */
+  public void resolveAll(RepositorySystem system, RepositorySystemSession session,
+      List<RemoteRepository> repositories, Collection<? extends Artifact> artifacts) {
+    Map<String, ArtifactRequest> requests = new LinkedHashMap<String, ArtifactRequest>();
+    for (Artifact artifact : artifacts) {
+      String key = key(artifact);
+      if (!results.containsKey(key) && !requests.containsKey(key))
+        requests.put(key, new ArtifactRequest(artifact, repositories, null));
+    }
+    if (requests.isEmpty())
+      return;
+
+    List<ArtifactResult> resolved;
+    try {
+      resolved = system.resolveArtifacts(session, requests.values());
+    } catch (ArtifactResolutionException e) {
+      resolved = e.getResults();
+    }
+    for (ArtifactResult result : resolved) {
+      store(key(result.getRequest().getArtifact()), result);
+    }
+  }
+
+  /**
+   * @param system the repository system.
+   * @param session the repository session.
+   * @param repositories the remote repositories to resolve from.
+   * @param artifact the artifact needed.
+   * @return the resolved artifact.
+   * @throws ArtifactResolutionException if the artifact cannot be resolved, now or earlier in the
+   *         session.
+   */
+  public ArtifactResult resolve(RepositorySystem system, RepositorySystemSession session,
+      List<RemoteRepository> repositories, Artifact artifact) throws ArtifactResolutionException {
+    String key = key(artifact);
+    Object result = results.get(key);
+    if (result == null) {
+      try {
+        result = system.resolveArtifact(session, new ArtifactRequest(artifact, repositories, null));
+      } catch (ArtifactResolutionException e) {
+        result = e;
+      }
+      results.put(key, result);
+    }
+    if (result instanceof ArtifactResolutionException)
+      throw (ArtifactResolutionException) result;
+    return (ArtifactResult) result;
+  }
+
+  private void store(String key, ArtifactResult result) {
+    if (result.isResolved()) {
+      results.put(key, result);
+    } else {
+      List<ArtifactResult> failed = new ArrayList<ArtifactResult>(Collections.singleton(result));
+      results.put(key, new ArtifactResolutionException(failed));
+    }
+  }
+
+  private static String key(Artifact artifact) {
+    return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getExtension()
+        + ":" + artifact.getClassifier() + ":" + artifact.getVersion();
+  }
+}
@@ -26,7 +26,8 @@ import org.apache.maven.plugins.annotations.Mojo;
  * Attach the (signed) bundle engine back to the bundle. TODO: might be more appropriate to use
  * custom phase. insignia -ab engine.exe bundle.exe -o bundle.exe ... sign bundle.exe
  */
-@Mojo(name = "attach-bundle", requiresProject = true, defaultPhase = LifecyclePhase.PREPARE_PACKAGE)
+@Mojo(name = "attach-bundle", requiresProject = true,
+    defaultPhase = LifecyclePhase.PREPARE_PACKAGE, threadSafe = true)
 public class AttachBundleEngineMojo extends AbstractInsigniaMojo {
 
   public void execute() throws MojoExecutionException, MojoFailureException {
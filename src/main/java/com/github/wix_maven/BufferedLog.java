@@ -0,0 +1,154 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A {@link Log} that holds on to messages until {@link #flush()} so that the output of a task run
+ * on a worker thread is written as one block rather than interleaved with its siblings.
+ * <p>
+ * Level checks are answered by the target log so that debug output is only buffered when it would
+ * have been printed.
+ */
+public class BufferedLog implements Log {
+
+  private static final int DEBUG = 0;
+  private static final int INFO = 1;
+  private static final int WARN = 2;
+  private static final int ERROR = 3;
+
+  private static class Entry {
+    final int level;
+    final CharSequence content;
+    final Throwable error;
+
+    Entry(int level, CharSequence content, Throwable error) {
+      this.level = level;
+      this.content = content;
+      this.error = error;
+    }
+  }
+
+  private final Log target;
+
+  private final List<Entry> entries = new ArrayList<Entry>();
+
+  public BufferedLog(Log target) {
+    this.target = target;
+  }
+
+  /**
+   * Write out everything buffered so far to the target log, then forget it.
+   */
+  public void flush() {
+    List<Entry> pending;
+    synchronized (entries) {
+      pending = new ArrayList<Entry>(entries);
+      entries.clear();
+    }
+    for (Entry entry : pending) {
+      switch (entry.level) {
+        case DEBUG:
+          target.debug(entry.content, entry.error);
+          break;
+        case INFO:
+          target.info(entry.content, entry.error);
+          break;
+        case WARN:
+          target.warn(entry.content, entry.error);
+          break;
+        default:
+          target.error(entry.content, entry.error);
+          break;
+      }
+    }
+  }
+
+  private void add(int level, CharSequence content, Throwable error) {
+    synchronized (entries) {
+      entries.add(new Entry(level, content, error));
+    }
+  }
+
+  public boolean isDebugEnabled() {
+    return target.isDebugEnabled();
+  }
+
+  public void debug(CharSequence content) {
+    if (isDebugEnabled())
+      add(DEBUG, content, null);
+  }
+
+  public void debug(CharSequence content, Throwable error) {
+    if (isDebugEnabled())
+      add(DEBUG, content, error);
+  }
+
+  public void debug(Throwable error) {
+    if (isDebugEnabled())
+      add(DEBUG, null, error);
+  }
+
+  public boolean isInfoEnabled() {
+    return target.isInfoEnabled();
+  }
+
+  public void info(CharSequence content) {
+    add(INFO, content, null);
+  }
+
+  public void info(CharSequence content, Throwable error) {
+    add(INFO, content, error);
+  }
+
+  public void info(Throwable error) {
+    add(INFO, null, error);
+  }
+
+  public boolean isWarnEnabled() {
+    return target.isWarnEnabled();
+  }
+
+  public void warn(CharSequence content) {
+    add(WARN, content, null);
+  }
+
+  public void warn(CharSequence content, Throwable error) {
+    add(WARN, content, error);
+  }
+
+  public void warn(Throwable error) {
+    add(WARN, null, error);
+  }
+
+  public boolean isErrorEnabled() {
+    return target.isErrorEnabled();
+  }
+
+  public void error(CharSequence content) {
+    add(ERROR, content, null);
+  }
+
+  public void error(CharSequence content, Throwable error) {
+    add(ERROR, content, error);
+  }
+
+  public void error(Throwable error) {
+    add(ERROR, null, error);
+  }
+}
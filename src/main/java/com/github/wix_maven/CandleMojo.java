@@ -22,19 +22,30 @@ import org.codehaus.plexus.compiler.util.scan.*;
 import org.codehaus.plexus.compiler.util.scan.mapping.*;
 import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
-import org.codehaus.plexus.util.cli.StreamConsumer;
+
+import org.codehaus.plexus.util.FileUtils;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 
 /**
@@ -50,18 +61,34 @@ import java.util.Set;
  * </ul>
  */
 @Mojo(name = "candle", requiresProject = true, defaultPhase = LifecyclePhase.COMPILE,
-    requiresDependencyResolution = ResolutionScope.COMPILE)
+    requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class CandleMojo extends AbstractCompilerMojo {
   /**
    * The name of the response file.
    */
   public static final String RESPONSE_FILE_NAME = "responseFile.txt";
+  /**
+   * The name of the response file listing the sources of one shard, see compileShards.
+   */
+  public static final String SHARD_RESPONSE_FILE_NAME = "responseFile-%1$d.txt";
+
+  /**
+   * The name of the file recording compile times of sources, see compileShardBalance.
+   */
+  public static final String COMPILE_TIMES_FILE_NAME = "candle-times.properties";
+
+  /**
+   * The name of the file recording the includes of sources, see trackDependencies.
+   */
+  public static final String DEPENDENCIES_FILE_NAME = "candle-dependencies.properties";
+
+  private static final String BALANCE_TIME = "time";
+
   /**
    * Definitions (pre) Compilation (-d option)
    */
   @Parameter
   private Set<String> definitions = new HashSet<String>();
-  private Set<String> definitionsArch = new HashSet<String>();
 
   /**
    * Include paths (-I option)
@@ -87,12 +114,22 @@ public class CandleMojo extends AbstractCompilerMojo {
   /**
    * The directory to store the time-stamp file for the processed aid files. <BR>
    * Defaults to outputDirectory. <BR>
-   * Only used with xsdTimestampFile being set.
+   * Only used with xsdTimestampFile being set. Each platform (and culture, when using
+   * compilePerLocale) keeps its own time-stamp file in a sub folder.
    */
   @Parameter(property = "wix.timestampDirectory",
       defaultValue = "${project.build.directory}/mapping/cpp")
   protected File timestampDirectory;
 
+  /**
+   * Track for each source the &lt;?include?&gt; files it reads, and a fingerprint of the
+   * definitions, extensions, options and toolset it was compiled with. A source is then compiled
+   * when it, one of its includes or the fingerprint changed, rather than when it is newer than its
+   * object. Takes the place of timestampFile.
+   */
+  @Parameter(property = "wix.trackDependencies", defaultValue = "false")
+  protected boolean trackDependencies;
+
   /**
    * The set of files/patterns to include Defaults to "**\/*.wxs"
    */
@@ -106,9 +143,25 @@ public class CandleMojo extends AbstractCompilerMojo {
   private Set<String> excludes = new HashSet<String>();
 
   /**
-   * A set of response files with configuration options.
+   * Split the stale sources of each platform/culture into up to this many groups, each compiled by
+   * its own candle process into the same intermediate directory. Useful when there are many
+   * sources, such as harvested fragments, as a single candle process only uses one core.
+   */
+  @Parameter(property = "wix.compileShards", defaultValue = "1")
+  protected int compileShards;
+
+  /**
+   * How to balance the sources across compileShards, by file "size" or by the compile "time"
+   * measured in earlier builds.
+   */
+  @Parameter(property = "wix.compileShardBalance", defaultValue = "size")
+  protected String compileShardBalance;
+
+  /**
+   * A set of response files with configuration options, read by the compile tasks, which may run in
+   * parallel.
    */
-  private Set<String> responseFiles = new HashSet<String>();
+  private final Set<String> responseFiles = new CopyOnWriteArraySet<String>();
 
   /**
    * Properties catch all in case we missed some configuration. Passed directly to candle
@@ -146,13 +199,11 @@ public class CandleMojo extends AbstractCompilerMojo {
     }
   }
 
-  private void addOptions(Commandline cl, String arch, String culture) {
+  private void addOptions(Commandline cl, String arch, String culture, Set<String> archDefinitions) {
     // note: cl tool will add quotes if necessary - adding \" in an arg will break it.
 
-    if (definitionsArch != null) {
-      for (String def : definitionsArch) {
-        cl.addArguments(new String[] {"-d" + def});
-      }
+    for (String def : archDefinitions) {
+      cl.addArguments(new String[] {"-d" + def});
     }
 
     // TODO: shorten commandline, use relative paths where possible
@@ -192,37 +243,27 @@ public class CandleMojo extends AbstractCompilerMojo {
     }
   }
 
-  private static String join(Iterable<? extends CharSequence> elements) {
-    final StringBuilder sb = new StringBuilder();
-    // Each file to new line
-    // All files quoted for handling of spaces
-    if (elements != null && elements.iterator().hasNext()) {
-      Iterator<? extends CharSequence> iter = elements.iterator();
-      sb.append("\n\"");
-      sb.append(iter.next());
-      sb.append("\"");
-      while (iter.hasNext()) {
-        sb.append("\n\"");
-        sb.append(iter.next());
-        sb.append("\"");
-      }
-    }
-    return sb.toString();
-  }
-
-  protected void compile(File responseFile, String arch, String culture)
+  /**
+   * The candle command line for a platform/culture, without the sources.
+   */
+  private Commandline createCommandline(String arch, String culture, Set<String> archDefinitions)
       throws MojoExecutionException {
-
     Commandline cl = new Commandline();
 
-    cl.setExecutable(getCommandBuilder().resolveToolExecutable(toolDirectory, "candle")
-        .getAbsolutePath());
+    cl.setExecutable(resolveTool("candle").getAbsolutePath());
     cl.setWorkingDirectory(relativeBase);
     addToolsetGeneralOptions(cl);
 
     addWixExtensions(cl);
-    addOptions(cl, arch, culture);
+    addOptions(cl, arch, culture, archDefinitions);
     addOtherOptions(cl);
+    return cl;
+  }
+
+  protected void compile(File responseFile, String arch, String culture, Set<String> archDefinitions)
+      throws MojoExecutionException {
+
+    Commandline cl = createCommandline(arch, culture, archDefinitions);
     cl.addArguments(new String[] {"@" + responseFile.getAbsolutePath()});
 
     try {
@@ -233,27 +274,8 @@ public class CandleMojo extends AbstractCompilerMojo {
       }
 
       // TODO: maybe should report or do something with return value.
-      int returnValue = CommandLineUtils.executeCommandLine(cl, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          if (line.contains(") : error ")) {
-            getLog().error(line);
-          } else if (line.contains(") : warning ")) {
-            getLog().warn(line);
-          } else if (verbose) {
-            getLog().info(line);
-          } else {
-            getLog().debug(line);
-          }
-        }
-
-      }, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          getLog().error(line);
-        }
-
-      });
+      int returnValue =
+          runTool("candle", cl, toolOutput(") : error ", ") : warning "), toolErrors());
 
       if (returnValue != 0) {
         throw new MojoExecutionException("Problem executing compiler, return code " + returnValue
@@ -271,14 +293,12 @@ public class CandleMojo extends AbstractCompilerMojo {
   }
 
   protected void createCommonResponseFile() throws MojoExecutionException {
-    final StringBuilder sb = new StringBuilder();
+    final ResponseFile content = new ResponseFile();
 
     if (includePaths != null) {
       for (String incPath : includePaths) {
-        sb.append("\n-i \"");
-        sb.append(incPath); // quoted for spaces, assuming it won't include " as they are invalid in
-                            // file name
-        sb.append("\"");
+        // quoted for spaces, assuming it won't include " as they are invalid in file name
+        content.addLine("-i \"" + incPath + "\"");
       }
     }
     if (definitions != null) {
@@ -286,21 +306,19 @@ public class CandleMojo extends AbstractCompilerMojo {
         if (getCommandBuilder().isUnifiedBuild()) {
           // v4+ unified CLI requires -d to be followed by key=value, and quotes around value if it
           // contains spaces or special characters
-          sb.append("\n-d ");
-          sb.append(StringUtils.replaceOnce(StringUtils.escape(def, new char[] {'\"'}, '\\'), "=",
-              "=\""));
+          content.addLine("-d "
+              + StringUtils.replaceOnce(StringUtils.escape(def, new char[] {'\"'}, '\\'), "=",
+                  "=\"") + "\"");
         } else {
           // v3 CLI requires -d to be followed by key=value, and quotes around the whole argument if
           // it contains spaces or special characters
-          sb.append("\n\"-d");
-          sb.append(StringUtils.escape(def, new char[] {'\"'}, '\\'));
+          content.addLine("\"-d" + StringUtils.escape(def, new char[] {'\"'}, '\\') + "\"");
         }
-        sb.append("\"");
       }
     }
 
     final File file = new File(intDirectory, RESPONSE_FILE_NAME);
-    createResponseFile(file, sb.toString());
+    writeResponseFile(file, content);
     responseFiles.add(file.getAbsolutePath());
   }
 
@@ -331,8 +349,6 @@ public class CandleMojo extends AbstractCompilerMojo {
       getLog().info("WiX v4+ detected: skipping candle compile step (deferred to wix build)");
       // Ensure intermediate directories exist so that LightMojo can reference them
       for (String arch : getPlatforms()) {
-        definitionsArch.clear();
-        addNARArchDefines(arch);
         if (!compilePerLocale || PACK_LIB.equalsIgnoreCase(packaging)) {
           getArchIntDirectory(arch, null).mkdirs();
         } else {
@@ -344,90 +360,318 @@ public class CandleMojo extends AbstractCompilerMojo {
       return;
     }
 
+    // each platform/culture cell compiles into its own intermediate directory, and each cell may
+    // be split into several shards, so they can all run side by side
+    List<CompileCell> cells = new ArrayList<CompileCell>();
     for (String arch : getPlatforms()) {
-      definitionsArch.clear();
-      addNARArchDefines(arch);
+      Set<String> archDefinitions = getNARArchDefines(arch);
 
       if (!compilePerLocale || PACK_LIB.equalsIgnoreCase(packaging)) {
-        multiCompile(arch, null);
+        cells.add(scanCell(arch, null, archDefinitions));
       } else {
         for (String culture : culturespecs()) {
-
-          multiCompile(arch, culture);
+          cells.add(scanCell(arch, culture, archDefinitions));
         }
       }
     }
+
+    WixTaskPool pool = createTaskPool();
+    for (CompileCell cell : cells) {
+      if (cell.sources.isEmpty()) {
+        getLog().info("All objects appear up to date for " + cell.intDir.getPath());
+      } else {
+        addCompileTasks(pool, cell);
+      }
+    }
+    Map<String, Long> durations = pool.execute();
+
+    // only once every shard of every cell has compiled
+    for (CompileCell cell : cells) {
+      if (cell.dependencies != null)
+        saveDependencies(cell);
+      if (!cell.sources.isEmpty()) {
+        touchTimestamp(cell);
+        saveCompileTimes(cell, durations);
+      }
+    }
+  }
+
+  /**
+   * The stale sources of a platform/culture and how they were split across candle invocations.
+   */
+  private static class CompileCell {
+    final String arch;
+    final String culture;
+    final Set<String> archDefinitions;
+    final File intDir;
+    File timestampDirectory;
+    CompileDependencies dependencies;
+    final Map<String, Long> sources = new LinkedHashMap<String, Long>();
+    final Map<String, File> sourceFiles = new LinkedHashMap<String, File>();
+    final List<List<String>> shards = new ArrayList<List<String>>();
+
+    CompileCell(String arch, String culture, Set<String> archDefinitions, File intDir) {
+      this.arch = arch;
+      this.culture = culture;
+      this.archDefinitions = archDefinitions;
+      this.intDir = intDir;
+    }
+
+    String getName() {
+      return culture == null ? arch : arch + "-" + culture;
+    }
+
+    String getShardName(int shard) {
+      return shards.size() == 1 ? getName() : getName() + "#" + (shard + 1);
+    }
   }
 
-  private void multiCompile(String arch, String culture) throws MojoExecutionException {
+  private CompileCell scanCell(String arch, String culture, Set<String> archDefinitions)
+      throws MojoExecutionException {
     File intDir = getArchIntDirectory(arch, culture);
     intDir.mkdirs();
+    CompileCell cell = new CompileCell(arch, culture, archDefinitions, intDir);
+
+    if (trackDependencies)
+      return scanCellDependencies(cell);
 
     // and intel... and...
     try {
 
       // TODO: there is a limitation here - if you change config options in pom, then we don't check
-      // to see if the file is older than the new config...
-      SourceInclusionScanner scanner =
-          new StaleSourceScanner(staleMillis, getIncludes(), getExcludes());
+      // to see if the file is older than the new config... see trackDependencies
+      SourceMapping mapping;
       if (timestampFile != null && timestampDirectory != null) {
         getLog().debug("Using timestamp file tracking for sources");
         // if( !xsdTimestampDirectory.exists() ||
         // xsdTimestampFile.isEmpty() ) tracking isn't going to work,
         // always rebuild - warning?
 
-        scanner.addSourceMapping(new SingleTargetSourceMapping(".wxs", timestampFile));
+        mapping = new SingleTargetSourceMapping(".wxs", timestampFile);
+        cell.timestampDirectory = getOutputPath(timestampDirectory, arch, culture);
       } else {
         Set<String> fileExts = new HashSet<String>();
         fileExts.add(".wixobj");
-        timestampDirectory = intDir;
-        scanner.addSourceMapping(new SuffixMapping(".wxs", fileExts));
+        cell.timestampDirectory = intDir;
+        mapping = new SuffixMapping(".wxs", fileExts);
       }
 
-      if (!timestampDirectory.exists())
-        timestampDirectory.mkdirs();
+      if (!cell.timestampDirectory.exists())
+        cell.timestampDirectory.mkdirs();
 
-      Set<File> wixSources = scanner.getIncludedSources(wxsInputDirectory, timestampDirectory);
+      Set<File> wixSources =
+          fileSnapshots.getStaleSources(wxsInputDirectory, getIncludes(), getExcludes(), mapping,
+              cell.timestampDirectory, staleMillis);
       if (wxsGeneratedDirectory.exists())
-        wixSources.addAll(scanner.getIncludedSources(wxsGeneratedDirectory, timestampDirectory));
+        wixSources.addAll(fileSnapshots.getStaleSources(wxsGeneratedDirectory, getIncludes(),
+            getExcludes(), mapping, cell.timestampDirectory, staleMillis));
 
-      if (wixSources.isEmpty()) {
-        getLog().info("All objects appear up to date");
-      } else {
-        Set<String> files = new HashSet<String>();
-        for (Iterator<File> i = wixSources.iterator(); i.hasNext();) {
-          files.add(getRelative(i.next()));
+      for (File source : wixSources) {
+        addSource(cell, source);
+      }
+
+      // project.addCompileSourceRoot(
+      // outputDirectory.getAbsolutePath() );
+      // updateProject( );
+    } catch (InclusionScanException e) {
+      throw new MojoExecutionException("XSD: scanning for updated files failed", e);
+    }
+    return cell;
+  }
+
+  private void addSource(CompileCell cell, File source) throws MojoExecutionException {
+    String relative = getRelative(source);
+    cell.sources.put(relative, source.length());
+    cell.sourceFiles.put(relative, source);
+  }
+
+  /**
+   * Find the sources of a cell that changed, or whose includes or configuration changed, since they
+   * were last compiled.
+   */
+  private CompileCell scanCellDependencies(CompileCell cell) throws MojoExecutionException {
+    cell.timestampDirectory = cell.intDir;
+    try {
+      Set<File> wixSources =
+          fileSnapshots.getIncludedSources(wxsInputDirectory, getIncludes(), getExcludes());
+      if (wxsGeneratedDirectory.exists())
+        wixSources.addAll(fileSnapshots.getIncludedSources(wxsGeneratedDirectory, getIncludes(),
+            getExcludes()));
+
+      cell.dependencies =
+          new CompileDependencies(new File(cell.intDir, DEPENDENCIES_FILE_NAME),
+              fingerprint(createCommandline(cell.arch, cell.culture, cell.archDefinitions)));
+      if (cell.dependencies.isFingerprintChanged())
+        getLog().info("Compiling all sources for " + cell.getName() + ", configuration changed");
+      cell.dependencies.retain(wixSources);
+
+      for (File source : wixSources) {
+        File object =
+            new File(cell.intDir, FileUtils.removeExtension(source.getName()) + ".wixobj");
+        if (cell.dependencies.isStale(source, object))
+          addSource(cell, source);
+      }
+    } catch (InclusionScanException e) {
+      throw new MojoExecutionException("XSD: scanning for updated files failed", e);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to read source dependencies of " + cell.getName(), e);
+    }
+    return cell;
+  }
+
+  /**
+   * Record the includes of the sources just compiled.
+   */
+  private void saveDependencies(CompileCell cell) throws MojoExecutionException {
+    List<String> allDefinitions = new ArrayList<String>(definitions);
+    allDefinitions.addAll(cell.archDefinitions);
+    for (File source : cell.sourceFiles.values()) {
+      cell.dependencies.record(source, includePaths, relativeBase, allDefinitions);
+    }
+    try {
+      cell.dependencies.save();
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to save source dependencies of " + cell.getName(), e);
+    }
+  }
+
+  private void addCompileTasks(WixTaskPool pool, final CompileCell cell)
+      throws MojoExecutionException {
+    planShards(cell);
+    for (int i = 0; i < cell.shards.size(); i++) {
+      final ResponseFile sources = new ResponseFile().addQuoted(cell.shards.get(i));
+      final File responseFile =
+          new File(cell.intDir, cell.shards.size() == 1 ? RESPONSE_FILE_NAME : String.format(
+              SHARD_RESPONSE_FILE_NAME, i + 1));
+      writeResponseFile(responseFile, sources);
+
+      pool.add(cell.getShardName(i), new WixTaskPool.Task() {
+        public void execute() throws MojoExecutionException {
+          compile(responseFile, cell.arch, cell.culture, cell.archDefinitions);
         }
+      });
+    }
+  }
 
+  /**
+   * Split the stale sources of a cell into at most {@link #compileShards} groups of about the same
+   * weight, heaviest source first into the lightest group. The weight is the file size, or with
+   * compileShardBalance=time the compile time measured by an earlier build, falling back to the
+   * size scaled by the average time per byte of the sources that have been measured.
+   */
+  private void planShards(CompileCell cell) {
+    int count = Math.max(1, Math.min(compileShards, cell.sources.size()));
+    final Map<String, Long> weights = new HashMap<String, Long>(cell.sources);
+    if (count > 1 && BALANCE_TIME.equalsIgnoreCase(compileShardBalance)) {
+      Properties history = loadCompileTimes(cell);
+      long knownBytes = 0;
+      long knownMillis = 0;
+      for (Map.Entry<String, Long> source : cell.sources.entrySet()) {
+        String millis = history.getProperty(source.getKey());
+        if (millis != null) {
+          knownBytes += source.getValue();
+          knownMillis += Long.parseLong(millis);
+        }
+      }
+      // keep some resolution by working in microseconds
+      double microsPerByte = knownBytes > 0 ? knownMillis * 1000.0 / knownBytes : 1.0;
+      for (Map.Entry<String, Long> source : cell.sources.entrySet()) {
+        String millis = history.getProperty(source.getKey());
+        weights.put(source.getKey(), millis != null ? Long.parseLong(millis) * 1000
+            : (long) (source.getValue() * microsPerByte));
+      }
+    }
 
-        final String argsText = join(files);
-        final File responseFile = new File(intDir, RESPONSE_FILE_NAME);
-        createResponseFile(responseFile, argsText);
+    List<String> ordered = new ArrayList<String>(cell.sources.keySet());
+    Collections.sort(ordered, new Comparator<String>() {
+      public int compare(String lhs, String rhs) {
+        int byWeight = weights.get(rhs).compareTo(weights.get(lhs));
+        return byWeight != 0 ? byWeight : lhs.compareTo(rhs);
+      }
+    });
 
-        compile(responseFile, arch, culture);
+    long[] load = new long[count];
+    for (int i = 0; i < count; i++) {
+      cell.shards.add(new ArrayList<String>());
+    }
+    for (String source : ordered) {
+      int lightest = 0;
+      for (int i = 1; i < count; i++) {
+        if (load[i] < load[lightest])
+          lightest = i;
+      }
+      cell.shards.get(lightest).add(source);
+      load[lightest] += weights.get(source);
+    }
+    if (count > 1)
+      getLog().info(
+          String.format("Compiling %1$d sources for %2$s in %3$d shards", cell.sources.size(),
+              cell.getName(), count));
+  }
 
-        if (timestampFile != null && timestampDirectory != null) {
-          File timeStamp = new File(timestampDirectory, timestampFile);
-          if (!timeStamp.exists())
-            try {
-              timeStamp.createNewFile();
-            } catch (IOException e) {
-              getLog().warn("XSD: Unable to touch timestamp file");
-            }
-          else if (!timeStamp.setLastModified(System.currentTimeMillis()))
-            getLog().warn("XSD: Unable to touch timestamp file");
+  private void touchTimestamp(CompileCell cell) {
+    if (timestampFile != null && timestampDirectory != null) {
+      File timeStamp = new File(cell.timestampDirectory, timestampFile);
+      if (!timeStamp.exists())
+        try {
+          timeStamp.createNewFile();
+        } catch (IOException e) {
+          getLog().warn("XSD: Unable to touch timestamp file");
         }
+      else if (!timeStamp.setLastModified(System.currentTimeMillis()))
+        getLog().warn("XSD: Unable to touch timestamp file");
+    }
+  }
+
+  private File getCompileTimesFile(CompileCell cell) {
+    return new File(cell.intDir, COMPILE_TIMES_FILE_NAME);
+  }
+
+  private Properties loadCompileTimes(CompileCell cell) {
+    Properties history = new Properties();
+    File file = getCompileTimesFile(cell);
+    if (file.exists()) {
+      try (InputStream in = new FileInputStream(file)) {
+        history.load(in);
+      } catch (IOException e) {
+        getLog().debug("Ignoring unreadable compile times " + file.getPath(), e);
       }
+    }
+    return history;
+  }
 
-      // project.addCompileSourceRoot(
-      // outputDirectory.getAbsolutePath() );
-      // updateProject( );
-    } catch (InclusionScanException e) {
-      throw new MojoExecutionException("XSD: scanning for updated files failed", e);
+  /**
+   * Remember how long each source took to compile, sharing out the duration of each shard by source
+   * size, for compileShardBalance=time in later builds.
+   */
+  private void saveCompileTimes(CompileCell cell, Map<String, Long> durations) {
+    if (!BALANCE_TIME.equalsIgnoreCase(compileShardBalance))
+      return;
+    Properties history = loadCompileTimes(cell);
+    for (int i = 0; i < cell.shards.size(); i++) {
+      Long duration = durations.get(cell.getShardName(i));
+      if (duration == null)
+        continue;
+      long bytes = 0;
+      for (String source : cell.shards.get(i)) {
+        bytes += cell.sources.get(source);
+      }
+      for (String source : cell.shards.get(i)) {
+        long share =
+            bytes > 0 ? duration * cell.sources.get(source) / bytes : duration
+                / cell.shards.get(i).size();
+        history.setProperty(source, Long.toString(share));
+      }
+    }
+    try (OutputStream out = new FileOutputStream(getCompileTimesFile(cell))) {
+      history.store(out, "candle compile times in milliseconds");
+    } catch (IOException e) {
+      getLog().warn("Unable to save compile times for " + cell.getName() + ": " + e.getMessage());
     }
   }
 
-  private void addNARArchDefines(String arch) {
+  private Set<String> getNARArchDefines(String arch) {
+    Set<String> definitionsArch = new LinkedHashSet<String>();
     if ("x86".equals(arch)) {
       definitionsArch.add("IsWin64=no");
       definitionsArch.add("narDir.dll=x86-Windows-msvc-shared/lib/x86-Windows-msvc/shared");
@@ -437,32 +681,6 @@ public class CandleMojo extends AbstractCompilerMojo {
       definitionsArch.add("narDir.dll=amd64-Windows-msvc-shared/lib/amd64-Windows-msvc/shared");
       definitionsArch.add("narDir.exe=amd64-Windows-msvc-executable/bin/amd64-Windows-msvc");
     }
-  }
-
-  private void createResponseFile(final File file, final String args) throws MojoExecutionException {
-    FileOutputStream fop = null;
-    try {
-      // if file doesn't exists, then create it
-      if (!file.exists()) {
-        file.getParentFile().mkdirs();
-        file.createNewFile();
-      }
-      fop = new FileOutputStream(file);
-      // get the content in bytes
-      byte[] contentInBytes = args.getBytes();
-      fop.write(contentInBytes);
-      fop.flush();
-      fop.close();
-    } catch (IOException ex) {
-      throw new MojoExecutionException("Failed to create a response file: " + ex.getMessage(), ex);
-    } finally {
-      try {
-        if (fop != null) {
-          fop.close();
-        }
-      } catch (IOException ex) {
-        getLog().debug("Failed to close fop: " + ex.getMessage());
-      }
-    }
+    return definitionsArch;
   }
 }
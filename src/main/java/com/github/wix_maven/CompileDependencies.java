@@ -0,0 +1,252 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Remembers, for the sources compiled into one intermediate directory, which files each source
+ * depends on (itself and its transitive &lt;?include?&gt; files) and the configuration fingerprint
+ * it was compiled with.
+ * <p>
+ * A source is stale when it was not compiled before, its object is missing, the fingerprint
+ * changed, or any of its recorded files changed size or modification time, was removed, or could
+ * not be resolved when recorded.
+ */
+public class CompileDependencies {
+
+  private static final String FINGERPRINT = "#fingerprint";
+
+  /** Marks an include whose path could not be resolved, the source is always recompiled. */
+  private static final String UNRESOLVED = "?";
+
+  private static final Pattern INCLUDE = Pattern.compile("<\\?include\\s+(.+?)\\s*\\?>");
+
+  private static final Pattern VARIABLE = Pattern.compile("\\$\\((\\w+)\\.([^)]+)\\)");
+
+  private final File stateFile;
+
+  private final String fingerprint;
+
+  private final Properties state = new Properties();
+
+  private final boolean fingerprintChanged;
+
+  /**
+   * @param stateFile where the dependencies are kept.
+   * @param fingerprint digest of the configuration the sources are compiled with.
+   * @throws IOException if the state file exists but cannot be read.
+   */
+  public CompileDependencies(File stateFile, String fingerprint) throws IOException {
+    this.stateFile = stateFile;
+    this.fingerprint = fingerprint;
+    if (stateFile.isFile()) {
+      try (InputStream in = new FileInputStream(stateFile)) {
+        state.load(in);
+      }
+    }
+    fingerprintChanged = !fingerprint.equals(state.getProperty(FINGERPRINT));
+    if (fingerprintChanged)
+      state.clear();
+  }
+
+  public boolean isFingerprintChanged() {
+    return fingerprintChanged;
+  }
+
+  /**
+   * @param source the source file.
+   * @param object the object compiled from the source.
+   * @return true if the source needs to be compiled.
+   */
+  public boolean isStale(File source, File object) {
+    String recorded = state.getProperty(source.getAbsolutePath());
+    if (recorded == null || !object.isFile())
+      return true;
+    for (String entry : recorded.split("\\|")) {
+      if (UNRESOLVED.equals(entry))
+        return true;
+      int space = entry.indexOf(' ');
+      if (space < 0
+          || !entry.substring(0, space).equals(stamp(new File(entry.substring(space + 1)))))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Record the current state of a source that has just been compiled, and of its includes.
+   * 
+   * @param source the source file.
+   * @param includePaths include search paths (-i), may be null.
+   * @param workingDirectory the compiler working directory.
+   * @param definitions preprocessor variables (name=value), used to resolve $(var.name).
+   */
+  public void record(File source, String[] includePaths, File workingDirectory,
+      Collection<String> definitions) {
+    Set<File> files = new LinkedHashSet<File>();
+    files.add(source.getAbsoluteFile());
+    boolean resolved = collectIncludes(source, includePaths, workingDirectory, definitions, files);
+
+    StringBuilder sb = new StringBuilder();
+    for (File file : files) {
+      if (sb.length() > 0)
+        sb.append('|');
+      sb.append(stamp(file)).append(' ').append(file.getAbsolutePath());
+    }
+    if (!resolved)
+      sb.append('|').append(UNRESOLVED);
+    state.setProperty(source.getAbsolutePath(), sb.toString());
+  }
+
+  /**
+   * Forget sources that are no longer part of the build.
+   * 
+   * @param sources the current sources.
+   */
+  public void retain(Collection<File> sources) {
+    Set<String> keep = new LinkedHashSet<String>();
+    for (File source : sources) {
+      keep.add(source.getAbsolutePath());
+    }
+    for (Object key : new ArrayList<Object>(state.keySet())) {
+      if (!FINGERPRINT.equals(key) && !keep.contains(key))
+        state.remove(key);
+    }
+  }
+
+  public void save() throws IOException {
+    state.setProperty(FINGERPRINT, fingerprint);
+    stateFile.getParentFile().mkdirs();
+    try (OutputStream out = new FileOutputStream(stateFile)) {
+      state.store(out, "candle source dependencies");
+    }
+  }
+
+  private static String stamp(File file) {
+    if (!file.isFile())
+      return "missing";
+    return file.length() + ":" + file.lastModified();
+  }
+
+  /**
+   * @return false if some include could not be resolved.
+   */
+  private boolean collectIncludes(File source, String[] includePaths, File workingDirectory,
+      Collection<String> definitions, Set<File> files) {
+    String text;
+    try {
+      text = FileUtils.fileRead(source);
+    } catch (IOException e) {
+      return false;
+    }
+    boolean resolved = true;
+    Matcher matcher = INCLUDE.matcher(text);
+    while (matcher.find()) {
+      String path = expand(matcher.group(1).trim(), source, workingDirectory, definitions);
+      File include = path != null ? resolve(path, source, includePaths, workingDirectory) : null;
+      if (include == null) {
+        resolved = false;
+      } else if (files.add(include)) {
+        resolved &= collectIncludes(include, includePaths, workingDirectory, definitions, files);
+      }
+    }
+    return resolved;
+  }
+
+  /**
+   * Replace the preprocessor variables candle would know about while reading the source.
+   * 
+   * @return the path, or null if it has variables that cannot be expanded here.
+   */
+  private static String expand(String path, File source, File workingDirectory,
+      Collection<String> definitions) {
+    if (path.startsWith("\"") && path.endsWith("\"") && path.length() > 1)
+      path = path.substring(1, path.length() - 1);
+    Matcher matcher = VARIABLE.matcher(path);
+    StringBuffer sb = new StringBuffer();
+    while (matcher.find()) {
+      String value = null;
+      String scope = matcher.group(1);
+      String name = matcher.group(2);
+      if ("var".equals(scope)) {
+        value = definition(name, definitions);
+      } else if ("env".equals(scope)) {
+        value = System.getenv(name);
+      } else if ("sys".equals(scope)) {
+        if ("SOURCEFILEDIR".equals(name))
+          value = source.getAbsoluteFile().getParent() + File.separator;
+        else if ("CURRENTDIR".equals(name) && workingDirectory != null)
+          value = workingDirectory.getAbsolutePath() + File.separator;
+      }
+      if (value == null)
+        return null;
+      matcher.appendReplacement(sb, Matcher.quoteReplacement(value));
+    }
+    matcher.appendTail(sb);
+    return sb.toString();
+  }
+
+  private static String definition(String name, Collection<String> definitions) {
+    for (String def : definitions) {
+      int equals = def.indexOf('=');
+      if (equals > 0 && def.substring(0, equals).equals(name))
+        return def.substring(equals + 1);
+    }
+    return null;
+  }
+
+  /**
+   * Look for the include as candle does, beside the including file, then on the include paths, then
+   * from the working directory.
+   */
+  private static File resolve(String path, File source, String[] includePaths, File workingDirectory) {
+    File file = new File(path);
+    if (file.isAbsolute())
+      return file.isFile() ? file : null;
+
+    List<File> bases = new ArrayList<File>();
+    bases.add(source.getAbsoluteFile().getParentFile());
+    if (includePaths != null) {
+      for (String includePath : includePaths) {
+        File base = new File(includePath);
+        bases.add(base.isAbsolute() || workingDirectory == null ? base : new File(workingDirectory,
+            includePath));
+      }
+    }
+    if (workingDirectory != null)
+      bases.add(workingDirectory);
+    for (File base : bases) {
+      File candidate = new File(base, path);
+      if (candidate.isFile())
+        return candidate.getAbsoluteFile();
+    }
+    return null;
+  }
+}
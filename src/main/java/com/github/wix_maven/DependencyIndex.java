@@ -0,0 +1,186 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.project.MavenProject;
+
+/**
+ * The dependencies of a project grouped by the role they play in a WiX build, classified in one
+ * pass over the artifacts and kept with the project so every mojo of the build shares it.
+ * <p>
+ * The rules are those of the artifact filters the goals used before: types are matched exactly, wix
+ * packages must be direct dependencies without classifier or with a platform classifier. The index
+ * is built again when the resolved artifacts of the project change, such as for a goal requiring a
+ * wider dependency scope.
+ */
+public class DependencyIndex {
+
+  /** What a dependency is used for. */
+  public enum Role {
+    /** WiX extension assemblies, wixext. */
+    WIX_EXTENSION,
+    /** WiX v4+ extension NuGet packages, nupkg. */
+    NUGET_EXTENSION,
+    /** Direct wixlib, msm, msp, msi, bundle and msix dependencies. */
+    WIX_PACKAGE,
+    /** Native libraries and executables, nar. */
+    NAR,
+    /** Java libraries, jar. */
+    JAR,
+    /** .NET assemblies and executables built by NPanday. */
+    NPANDAY,
+    /** Configuration files of NPanday assemblies and executables. */
+    NPANDAY_CONFIG
+  }
+
+  private static final String CONTEXT_KEY = "wix-maven-plugin.dependencyIndex";
+
+  private static final List<String> EXTENSION_TYPES = Arrays.asList("wixext", "wixExt");
+
+  private static final List<String> PACKAGE_TYPES = Arrays.asList("wixlib", "msm", "msp", "msi",
+      "bundle", "msix");
+
+  private static final List<String> PLATFORM_CLASSIFIERS = Arrays.asList("x86", "x64", "intel",
+      "intel64", "ia64");
+
+  private static final List<String> NPANDAY_TYPES = Arrays.asList("dotnet-library", "dll",
+      "dotnet-executable", "exe");
+
+  private static final List<String> NPANDAY_CONFIG_TYPES = Arrays.asList("dotnet-library-config",
+      "dll.config", "dotnet-executable-config", "exe.config");
+
+  private final Set<Artifact> source;
+
+  private final int sourceSize;
+
+  private final Map<Role, Set<Artifact>> roles = new EnumMap<Role, Set<Artifact>>(Role.class);
+
+  private final Map<Role, Set<Artifact>> unclassified =
+      new EnumMap<Role, Set<Artifact>>(Role.class);
+
+  private DependencyIndex(Set<Artifact> artifacts, Set<Artifact> directArtifacts) {
+    this.source = artifacts;
+    this.sourceSize = artifacts.size();
+    Set<Artifact> direct =
+        directArtifacts != null ? new HashSet<Artifact>(directArtifacts) : Collections
+            .<Artifact>emptySet();
+    for (Role role : Role.values()) {
+      roles.put(role, new LinkedHashSet<Artifact>());
+      unclassified.put(role, new LinkedHashSet<Artifact>());
+    }
+    for (Artifact artifact : artifacts) {
+      Role role = classify(artifact, direct);
+      if (role != null) {
+        roles.get(role).add(artifact);
+        if (!artifact.hasClassifier())
+          unclassified.get(role).add(artifact);
+      }
+    }
+    for (Role role : Role.values()) {
+      roles.put(role, Collections.unmodifiableSet(roles.get(role)));
+      unclassified.put(role, Collections.unmodifiableSet(unclassified.get(role)));
+    }
+  }
+
+  /**
+   * @param project the project being built.
+   * @return the index of the resolved artifacts of the project.
+   */
+  public static DependencyIndex get(MavenProject project) {
+    synchronized (project) {
+      Set<Artifact> artifacts = project.getArtifacts();
+      Object value = project.getContextValue(CONTEXT_KEY);
+      if (value instanceof DependencyIndex && ((DependencyIndex) value).isFor(artifacts))
+        return (DependencyIndex) value;
+      DependencyIndex index = new DependencyIndex(artifacts, project.getDependencyArtifacts());
+      project.setContextValue(CONTEXT_KEY, index);
+      return index;
+    }
+  }
+
+  /**
+   * @param role the role.
+   * @return the dependencies with the role, in the order of the project artifacts.
+   */
+  public Set<Artifact> get(Role role) {
+    return roles.get(role);
+  }
+
+  /**
+   * @param role the role.
+   * @return the dependencies with the role that have no classifier, such as the resource archives
+   *         of wix packages.
+   */
+  public Set<Artifact> getUnclassified(Role role) {
+    return unclassified.get(role);
+  }
+
+  /**
+   * @param first a role.
+   * @param second another role.
+   * @return the dependencies with either role.
+   */
+  public Set<Artifact> get(Role first, Role second) {
+    Set<Artifact> artifacts = new LinkedHashSet<Artifact>(roles.get(first));
+    artifacts.addAll(roles.get(second));
+    return Collections.unmodifiableSet(artifacts);
+  }
+
+  private boolean isFor(Set<Artifact> artifacts) {
+    return source == artifacts && sourceSize == artifacts.size();
+  }
+
+  private static Role classify(Artifact artifact, Set<Artifact> direct) {
+    String type = artifact.getType();
+    if (EXTENSION_TYPES.contains(type))
+      return Role.WIX_EXTENSION;
+    if ("nupkg".equals(type))
+      return Role.NUGET_EXTENSION;
+    if (PACKAGE_TYPES.contains(type))
+      return direct.contains(artifact) && isPlatformClassifier(artifact.getClassifier()) ? Role.WIX_PACKAGE
+          : null;
+    if ("nar".equals(type))
+      return Role.NAR;
+    if ("jar".equals(type))
+      return Role.JAR;
+    if (NPANDAY_TYPES.contains(type))
+      return Role.NPANDAY;
+    if (NPANDAY_CONFIG_TYPES.contains(type))
+      return Role.NPANDAY_CONFIG;
+    return null;
+  }
+
+  /**
+   * No classifier, or one starting with a platform such as x86-neutral.
+   */
+  private static boolean isPlatformClassifier(String classifier) {
+    if (classifier == null)
+      return true;
+    for (String platform : PLATFORM_CLASSIFIERS) {
+      if (classifier.startsWith(platform))
+        return true;
+    }
+    return false;
+  }
+}
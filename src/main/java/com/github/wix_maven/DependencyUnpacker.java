@@ -0,0 +1,102 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Extracts the selected entries of a dependency archive, safe to use for several archives at the
+ * same time as each extraction opens its own archive.
+ * <p>
+ * The entries are taken in one pass over the central directory of the archive and each selected
+ * entry is streamed to its file, so large cabinets are neither buffered nor read twice.
+ */
+public class DependencyUnpacker {
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final String[] includes;
+
+  private final String[] excludes;
+
+  /**
+   * @param includes patterns of the entries to extract, such as cabs/**, all when null.
+   * @param excludes patterns of the entries not to extract, may be null.
+   */
+  public DependencyUnpacker(String[] includes, String[] excludes) {
+    this.includes = includes;
+    this.excludes = excludes;
+  }
+
+  /**
+   * @param archive the dependency archive.
+   * @param destination the folder to extract to.
+   * @return the number of files extracted.
+   * @throws IOException if the archive cannot be read or a file cannot be written.
+   */
+  public int unpack(File archive, File destination) throws IOException {
+    String root = destination.getCanonicalPath() + File.separator;
+    byte[] buffer = new byte[BUFFER_SIZE];
+    int count = 0;
+    ZipFile zip = new ZipFile(archive);
+    try {
+      for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+        ZipEntry entry = e.nextElement();
+        if (entry.isDirectory() || !isSelected(entry.getName()))
+          continue;
+
+        File target = new File(destination, entry.getName());
+        if (!target.getCanonicalPath().startsWith(root))
+          throw new IOException("Entry is outside of the target folder: " + entry.getName());
+        target.getParentFile().mkdirs();
+
+        try (InputStream in = zip.getInputStream(entry);
+            OutputStream out = new FileOutputStream(target)) {
+          for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+          }
+        }
+        if (entry.getTime() != -1)
+          target.setLastModified(entry.getTime());
+        count++;
+      }
+    } finally {
+      zip.close();
+    }
+    return count;
+  }
+
+  private boolean isSelected(String name) {
+    return (includes == null || matches(includes, name))
+        && (excludes == null || !matches(excludes, name));
+  }
+
+  private static boolean matches(String[] patterns, String name) {
+    for (String pattern : patterns) {
+      if (pattern != null && !pattern.trim().isEmpty()
+          && SelectorUtils.matchPath(pattern.trim(), name, "/", true))
+        return true;
+    }
+    return false;
+  }
+}
@@ -25,7 +25,8 @@ import org.codehaus.plexus.util.cli.Commandline;
  * Detach the bundle engine from the bundle for signing. TODO: might be more appropriate to use
  * custom phase. insignia -ib bundle.exe -o engine.exe ... sign engine.exe
  */
-@Mojo(name = "detach-bundle", requiresProject = true, defaultPhase = LifecyclePhase.PROCESS_CLASSES)
+@Mojo(name = "detach-bundle", requiresProject = true,
+    defaultPhase = LifecyclePhase.PROCESS_CLASSES, threadSafe = true)
 public class DetachBundleEngineMojo extends AbstractInsigniaMojo {
 
   public void execute() throws MojoExecutionException, MojoFailureException {
@@ -0,0 +1,132 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Properties;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * The WiX v4+ extensions installed into the global extension cache of the user, shared by all
+ * modules and builds so an installed extension is not removed and added again.
+ * <p>
+ * Entries are keyed by extension id and version with the folder the extension was installed to, and
+ * are only trusted while that folder exists. Extensions installed where the folder is not known are
+ * not recorded, so they are installed again rather than trusted after being removed. The manifest
+ * is read and written under a file lock.
+ */
+public class ExtensionManifest {
+
+  /** Threads of one JVM cannot share a file lock. */
+  private static final Object LOCK = new Object();
+
+  private final File file;
+
+  /**
+   * @param file the manifest, created when the first extension is recorded.
+   */
+  public ExtensionManifest(File file) {
+    this.file = file;
+  }
+
+  /**
+   * @param id the extension package id.
+   * @param version the extension version.
+   * @return true if the extension was recorded as installed and is still there.
+   * @throws MojoExecutionException if the manifest cannot be read.
+   */
+  public boolean isInstalled(String id, String version) throws MojoExecutionException {
+    if (!file.isFile())
+      return false;
+    String folder = read().getProperty(key(id, version));
+    // entries without a folder were recorded by earlier versions and cannot be checked
+    return folder != null && !folder.isEmpty() && new File(folder).isDirectory();
+  }
+
+  /**
+   * Record an installed extension.
+   * 
+   * @param id the extension package id.
+   * @param version the extension version.
+   * @param folder where the extension was installed, or null if not known, when nothing is
+   *        recorded.
+   * @throws MojoExecutionException if the manifest cannot be written.
+   */
+  public void recordInstalled(String id, String version, File folder) throws MojoExecutionException {
+    if (folder == null)
+      return;
+    synchronized (LOCK) {
+      file.getParentFile().mkdirs();
+      try {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+          FileChannel channel = raf.getChannel();
+          FileLock lock = channel.lock();
+          try {
+            Properties properties = new Properties();
+            InputStream in = Channels.newInputStream(channel);
+            properties.load(in);
+            properties.setProperty(key(id, version), folder.getAbsolutePath());
+            channel.truncate(0);
+            channel.position(0);
+            OutputStream out = Channels.newOutputStream(channel);
+            properties.store(out, "installed WiX extensions");
+            out.flush();
+          } finally {
+            lock.release();
+          }
+        } finally {
+          raf.close();
+        }
+      } catch (IOException e) {
+        throw new MojoExecutionException("Unable to write extension manifest " + file, e);
+      }
+    }
+  }
+
+  private Properties read() throws MojoExecutionException {
+    synchronized (LOCK) {
+      try {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+          FileChannel channel = raf.getChannel();
+          FileLock lock = channel.lock();
+          try {
+            Properties properties = new Properties();
+            properties.load(Channels.newInputStream(channel));
+            return properties;
+          } finally {
+            lock.release();
+          }
+        } finally {
+          raf.close();
+        }
+      } catch (IOException e) {
+        throw new MojoExecutionException("Unable to read extension manifest " + file, e);
+      }
+    }
+  }
+
+  private static String key(String id, String version) {
+    return id.toLowerCase() + "/" + (version != null ? version : "");
+  }
+}
@@ -0,0 +1,123 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.codehaus.plexus.archiver.zip.ZipUnArchiver;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * WiX v4+ extension packages resolved as Maven artifacts, unpacked once into a folder named by the
+ * SHA-1 of the package, so the same package is shared by all modules and builds.
+ * <p>
+ * A package is unpacked into a temporary folder and renamed into place, a build that loses the race
+ * uses the folder of the winner. Extension assemblies (.wixext.dll) are used where they are.
+ */
+public class ExtensionStore {
+
+  /** Extension assemblies by package path, size and time. */
+  private static final Map<String, File> EXTENSIONS = new ConcurrentHashMap<String, File>();
+
+  private final File storeDirectory;
+
+  /**
+   * @param storeDirectory the root of the store.
+   */
+  public ExtensionStore(File storeDirectory) {
+    this.storeDirectory = storeDirectory.getAbsoluteFile();
+  }
+
+  /**
+   * @param file a NuGet package (.nupkg) or an extension assembly.
+   * @return the extension assembly to pass to -ext.
+   * @throws MojoExecutionException if the package cannot be unpacked or holds no extension.
+   */
+  public File resolve(File file) throws MojoExecutionException {
+    if (file.getName().toLowerCase().endsWith(".dll"))
+      return file;
+
+    String key = file.getAbsolutePath() + "|" + InputManifest.stamp(file);
+    File extension = EXTENSIONS.get(key);
+    if (extension != null)
+      return extension;
+
+    File folder;
+    try {
+      folder = new File(storeDirectory, InputManifest.digest(file));
+      if (!folder.isDirectory())
+        unpack(file, folder);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to unpack WiX extension " + file, e);
+    }
+    extension = findExtension(folder, null);
+    if (extension == null)
+      throw new MojoExecutionException("No .wixext.dll found in WiX extension package " + file);
+    EXTENSIONS.put(key, extension);
+    return extension;
+  }
+
+  private void unpack(File file, File folder) throws IOException, MojoExecutionException {
+    storeDirectory.mkdirs();
+    File temp = Files.createTempDirectory(storeDirectory.toPath(), folder.getName() + ".").toFile();
+    try {
+      ZipUnArchiver unArchiver = new ZipUnArchiver(file);
+      unArchiver.setDestDirectory(temp);
+      try {
+        unArchiver.extract();
+      } catch (Exception e) {
+        throw new MojoExecutionException("Error unpacking WiX extension " + file, e);
+      }
+      try {
+        Files.move(temp.toPath(), folder.toPath());
+      } catch (FileAlreadyExistsException e) {
+        // unpacked by another build meanwhile
+      } catch (FileSystemException e) {
+        if (!folder.isDirectory())
+          throw e;
+      }
+    } finally {
+      if (temp.exists())
+        FileUtils.deleteDirectory(temp);
+    }
+  }
+
+  /**
+   * Find the extension assembly, preferring one in a wixext folder of the package, such as
+   * wixext4/WixToolset.Util.wixext.dll.
+   */
+  private static File findExtension(File folder, File found) {
+    File[] files = folder.listFiles();
+    if (files == null)
+      return found;
+    for (File child : files) {
+      if (child.isDirectory()) {
+        found = findExtension(child, found);
+      } else if (child.getName().toLowerCase().endsWith(".wixext.dll")) {
+        boolean preferred = folder.getName().toLowerCase().startsWith("wixext");
+        if (found == null
+            || (preferred && !found.getParentFile().getName().toLowerCase().startsWith("wixext")))
+          found = child;
+      }
+    }
+    return found;
+  }
+}
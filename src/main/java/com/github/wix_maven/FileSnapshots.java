@@ -0,0 +1,227 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.codehaus.plexus.compiler.util.scan.InclusionScanException;
+import org.codehaus.plexus.compiler.util.scan.mapping.SourceMapping;
+import org.codehaus.plexus.util.AbstractScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * The files under the source, intermediate and locale folders of a goal, each folder walked once
+ * with the times of its files, so the cells of a goal select their sources from memory rather than
+ * each scanning the folders again.
+ * <p>
+ * Selection follows the plexus source inclusion scanners the goals used before: include and exclude
+ * patterns with the default SCM excludes, following symbolic links, and a source is stale when a
+ * target of its mapping is missing or older. The goal invalidates a folder when it writes files
+ * under it.
+ */
+public class FileSnapshots {
+
+  private static final String[] DEFAULT_EXCLUDES = normalize(new HashSet<String>(
+      Arrays.asList(AbstractScanner.DEFAULTEXCLUDES)));
+
+  private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+
+  /**
+   * @param root the folder to select from.
+   * @param includes the patterns of the files to select.
+   * @param excludes the patterns of the files not to select.
+   * @return the files selected, empty when the folder does not exist.
+   * @throws InclusionScanException if the folder cannot be walked.
+   */
+  public Set<File> getIncludedSources(File root, Set<String> includes, Set<String> excludes)
+      throws InclusionScanException {
+    Set<File> sources = new HashSet<File>();
+    for (Entry entry : select(root, includes, excludes)) {
+      sources.add(entry.file);
+    }
+    return sources;
+  }
+
+  /**
+   * @param root the folder to select from.
+   * @param includes the patterns of the files to select.
+   * @param excludes the patterns of the files not to select.
+   * @param mapping maps a source to its targets.
+   * @param targetDirectory the folder of the targets.
+   * @param staleMillis how much newer than a target a source may be and still be up to date.
+   * @return the files selected that have a target missing or older than the source.
+   * @throws InclusionScanException if a folder cannot be walked.
+   */
+  public Set<File> getStaleSources(File root, Set<String> includes, Set<String> excludes,
+      SourceMapping mapping, File targetDirectory, long staleMillis) throws InclusionScanException {
+    Snapshot targets = get(targetDirectory);
+    Set<File> sources = new HashSet<File>();
+    for (Entry entry : select(root, includes, excludes)) {
+      for (File target : mapping.getTargetFiles(targetDirectory, entry.path)) {
+        Entry known = targets.byPath.get(target.getAbsolutePath());
+        long targetModified = known != null ? known.lastModified : target.lastModified();
+        if ((known == null && !target.exists())
+            || entry.lastModified - staleMillis > targetModified) {
+          sources.add(entry.file);
+          break;
+        }
+      }
+    }
+    return sources;
+  }
+
+  /**
+   * Forget the snapshots of the folders a file or folder is written under, or that are under it.
+   * 
+   * @param written the file or folder written to.
+   */
+  public void invalidate(File written) {
+    String path = written.getAbsolutePath();
+    for (Iterator<String> i = snapshots.keySet().iterator(); i.hasNext();) {
+      String root = i.next();
+      if (isUnder(path, root) || isUnder(root, path))
+        i.remove();
+    }
+  }
+
+  private static boolean isUnder(String path, String folder) {
+    return path.equals(folder)
+        || path.startsWith(folder.endsWith(File.separator) ? folder : folder + File.separator);
+  }
+
+  private List<Entry> select(File root, Set<String> includes, Set<String> excludes)
+      throws InclusionScanException {
+    String[] includePatterns = normalize(includes);
+    String[] excludePatterns = normalize(excludes);
+    List<Entry> selected = new ArrayList<Entry>();
+    for (Entry entry : get(root).entries) {
+      if (matches(includePatterns, entry.path) && !matches(excludePatterns, entry.path)
+          && !matches(DEFAULT_EXCLUDES, entry.path))
+        selected.add(entry);
+    }
+    return selected;
+  }
+
+  /**
+   * As the directory scanner does: native separators, and a trailing separator matches everything
+   * under the folder.
+   */
+  private static String[] normalize(Set<String> patterns) {
+    if (patterns == null)
+      return new String[0];
+    List<String> normalized = new ArrayList<String>();
+    for (String pattern : patterns) {
+      if (pattern == null)
+        continue;
+      String p = pattern.trim().replace('/', File.separatorChar).replace('\\', File.separatorChar);
+      if (p.endsWith(File.separator))
+        p += "**";
+      normalized.add(p);
+    }
+    return normalized.toArray(new String[normalized.size()]);
+  }
+
+  private static boolean matches(String[] patterns, String path) {
+    for (String pattern : patterns) {
+      if (SelectorUtils.matchPath(pattern, path, File.separator, true))
+        return true;
+    }
+    return false;
+  }
+
+  private Snapshot get(File root) throws InclusionScanException {
+    String key = root.getAbsolutePath();
+    Snapshot snapshot = snapshots.get(key);
+    if (snapshot == null) {
+      synchronized (this) {
+        snapshot = snapshots.get(key);
+        if (snapshot == null) {
+          snapshot = walk(root);
+          snapshots.put(key, snapshot);
+        }
+      }
+    }
+    return snapshot;
+  }
+
+  private static Snapshot walk(final File root) throws InclusionScanException {
+    final Snapshot snapshot = new Snapshot();
+    if (!root.isDirectory())
+      return snapshot;
+    final Path base = root.getAbsoluteFile().toPath();
+    try {
+      Files.walkFileTree(base, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              if (attrs.isRegularFile() || attrs.isOther()) {
+                String path = base.relativize(file).toString();
+                Entry entry =
+                    new Entry(path, new File(root, path), attrs.lastModifiedTime().toMillis());
+                snapshot.entries.add(entry);
+                snapshot.byPath.put(entry.file.getAbsolutePath(), entry);
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+              // unreadable entries and symbolic link cycles are skipped, as by the scanner
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    } catch (IOException e) {
+      throw new InclusionScanException("Unable to scan " + root, e);
+    }
+    return snapshot;
+  }
+
+  private static final class Snapshot {
+    private final List<Entry> entries = new ArrayList<Entry>();
+
+    private final Map<String, Entry> byPath = new HashMap<String, Entry>();
+  }
+
+  private static final class Entry {
+    /** Relative to the root, with native separators. */
+    private final String path;
+
+    private final File file;
+
+    private final long lastModified;
+
+    private Entry(String path, File file, long lastModified) {
+      this.path = path;
+      this.file = file;
+      this.lastModified = lastModified;
+    }
+  }
+}
@@ -16,6 +16,9 @@ package com.github.wix_maven;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.maven.artifact.Artifact;
@@ -25,12 +28,9 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
-import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
-import org.codehaus.plexus.util.cli.StreamConsumer;
 
 /***
  * Generates WiX authoring from various input formats.
@@ -38,7 +38,7 @@ import org.codehaus.plexus.util.cli.StreamConsumer;
  * Every time heat is run it regenerates the output file and any changes are lost.
  */
 @Mojo(name = "harvest", defaultPhase = LifecyclePhase.GENERATE_SOURCES,
-    requiresDependencyResolution = ResolutionScope.COMPILE)
+    requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class HarvestMojo extends AbstractPackageable {
   // Heat seems a bit dirty, requires the following to be installed side by side with Heat.exe
   //
@@ -222,6 +222,38 @@ public class HarvestMojo extends AbstractPackageable {
   @Parameter(defaultValue = "")
   String harvestTransform;
 
+  /**
+   * Where heat v3 runs from: a copy of the heat folder of the toolset, with the heat extensions of
+   * the project beside it.
+   */
+  @Parameter(property = "wix.heatDirectory",
+      defaultValue = "${project.build.directory}/wix-tools/heat", required = true)
+  protected File heatDirectory;
+
+  private static final String[] HEAT_EXTENSIONS = {"WixIISExtension", "WixUtilExtension",
+      "WixVSExtension"};
+
+  /**
+   * Skip harvesting an input when its output exists and the paths, sizes and times of its files and
+   * the harvest options are the same as when it was last harvested.
+   */
+  @Parameter(property = "wix.incrementalHarvest", defaultValue = "true")
+  protected boolean incrementalHarvest;
+
+  public static final String HARVEST_MANIFEST_FILE_NAME = "heatManifest-%1$s.properties";
+
+  /**
+   * What harvests dir and file inputs, one of:
+   * <ul>
+   * <li>heat - the WiX heat tool,</li>
+   * <li>native - the plugin, without starting heat so also off Windows, for the fragment template
+   * generating components without a transform. Registry information is not harvested, so
+   * harvestSuppressRegistryHarvesting must be set.</li>
+   * </ul>
+   */
+  @Parameter(property = "wix.harvester", defaultValue = "heat")
+  protected String harvester;
+
   // public final String HT_FRAGMENT="fragment";
   // public final String HT_MODULE="module";
   // public final String HT_PRODUCT="product";
@@ -267,9 +299,13 @@ public class HarvestMojo extends AbstractPackageable {
   }
 
   public void multiHeat(File heatTool, String harvestType, File harvest)
-      throws MojoExecutionException, MojoFailureException {
+      throws MojoExecutionException {
 
     getLog().info("Harvesting " + harvestType + " input " + harvest.getPath());
+    if (isNativeHarvester()) {
+      nativeHarvest(harvestType, harvest);
+      return;
+    }
     //
     // { Project ??
     // defaultLocale();
@@ -311,7 +347,12 @@ public class HarvestMojo extends AbstractPackageable {
     File target = new File(wxsGeneratedDirectory, getHarvestID(harvestType, harvest) + ".wxs");
     cl.addArguments(new String[] {"-out", target.getAbsolutePath()});
 
+    InputManifest manifest = harvestManifest(fingerprint(cl), harvest);
+    File manifestFile = getHarvestManifestFile(getHarvestID(harvestType, harvest));
+    if (isHarvestUpToDate(manifest, manifestFile, target))
+      return;
     heat(cl);
+    saveHarvestManifest(manifest, manifestFile, target);
     // }
   }
 
@@ -319,6 +360,128 @@ public class HarvestMojo extends AbstractPackageable {
     return harvestType + "_" + harvest.getName();
   }
 
+  private boolean isNativeHarvester() {
+    return "native".equalsIgnoreCase(harvester);
+  }
+
+  /**
+   * The native harvester replaces heat only where its output is the same.
+   */
+  private void checkNativeHarvester() throws MojoExecutionException {
+    if (StringUtils.isNotEmpty(harvestType) && !HT_DIR.equals(harvestType)
+        && !HT_FILE.equals(harvestType))
+      throw new MojoExecutionException("The native harvester can't harvest " + harvestType
+          + ", use heat");
+    if (!"fragment".equals(harvestTemplate) || !"components".equals(harvestGenerate))
+      throw new MojoExecutionException("The native harvester only generates components in a "
+          + "fragment, use heat for template " + harvestTemplate + " generate " + harvestGenerate);
+    if (StringUtils.isNotEmpty(harvestTransform))
+      throw new MojoExecutionException("The native harvester can't apply transforms, use heat");
+    if (!harvestSuppressRegistryHarvesting)
+      throw new MojoExecutionException("The native harvester doesn't harvest registry "
+          + "information, set harvestSuppressRegistryHarvesting or use heat");
+  }
+
+  /**
+   * Harvest as multiHeat does, with the same options and output, without heat.
+   */
+  private void nativeHarvest(String harvestType, File harvest) throws MojoExecutionException {
+    String harvestID = getHarvestID(harvestType, harvest);
+    String sourceVar = harvestSourceVar;
+    if (StringUtils.isEmpty(sourceVar) && generateHarvestSourceVarName)
+      sourceVar = "var." + harvestID;
+
+    NativeHarvester nativeHarvester =
+        new NativeHarvester(getCommandBuilder().isUnifiedBuild() ? NativeHarvester.WIX4_NAMESPACE
+            : NativeHarvester.WIX3_NAMESPACE)
+            .setComponentGroup(
+                StringUtils.isNotEmpty(harvestComponentGroupName) ? harvestComponentGroupName
+                    : harvestID).setDirectoryRef(harvestDirectoryRef)
+            .setDirectoryId(harvestDirectoryid).setSourceVar(sourceVar)
+            .setBinderVariables(generateBinderVariables)
+            .setSuppressRootDirectory(harvestSuppressRootDirectoryElement)
+            .setKeepEmpty(harvestKeepEmpty).setSuppressUniqueIds(harvestSuppressUniqueIdentifiers)
+            .setGuids(generateComponentGUIDs, generateGUIDBrackets);
+
+    File target = new File(wxsGeneratedDirectory, harvestID + ".wxs");
+    InputManifest manifest = harvestManifest(nativeHarvester.fingerprint(), harvest);
+    File manifestFile = getHarvestManifestFile(harvestID);
+    if (isHarvestUpToDate(manifest, manifestFile, target))
+      return;
+    int files =
+        HT_FILE.equals(harvestType) ? nativeHarvester.harvestFile(harvest, target)
+            : nativeHarvester.harvestDirectory(harvest, target);
+    if (verbose)
+      getLog().info(String.format("Harvested %1$d files into %2$s", files, target.getPath()));
+    saveHarvestManifest(manifest, manifestFile, target);
+  }
+
+  /**
+   * The options and input of a harvest, the tree digested before harvesting so changes made while
+   * harvesting show next time.
+   * 
+   * @param fingerprint digest of the harvest options.
+   * @param harvest the directory or file harvested.
+   * @return the manifest, without the output.
+   * @throws MojoExecutionException if the input cannot be walked.
+   */
+  private InputManifest harvestManifest(String fingerprint, File harvest)
+      throws MojoExecutionException {
+    InputManifest manifest = new InputManifest();
+    manifest.add("options", fingerprint);
+    try {
+      manifest.add("input:" + harvest.getAbsolutePath(),
+          harvest.isDirectory() ? InputManifest.digestTree(harvest) : InputManifest.stamp(harvest));
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to walk harvest input " + harvest, e);
+    }
+    return manifest;
+  }
+
+  private File getHarvestManifestFile(String harvestID) {
+    return new File(intDirectory, String.format(HARVEST_MANIFEST_FILE_NAME, harvestID));
+  }
+
+  /**
+   * Compare a harvest with the last one, logging why it is needed. The output is recorded too, so
+   * an output changed or removed since is harvested again.
+   * 
+   * @return true if the harvest can be skipped.
+   * @throws MojoExecutionException if the saved manifest cannot be read.
+   */
+  private boolean isHarvestUpToDate(InputManifest manifest, File manifestFile, File output)
+      throws MojoExecutionException {
+    manifest.add("output", InputManifest.stamp(output));
+    String reason;
+    if (!incrementalHarvest)
+      reason = "incremental harvest is disabled";
+    else if (!output.isFile())
+      reason = "output is missing";
+    else {
+      try {
+        reason = manifest.compare(manifestFile);
+      } catch (IOException e) {
+        throw new MojoExecutionException("Unable to read harvest manifest " + manifestFile, e);
+      }
+    }
+    if (reason == null) {
+      getLog().info(" -- Up to date : " + output.getPath());
+      return true;
+    }
+    getLog().info(" -- Harvesting " + output.getName() + ", " + reason);
+    return false;
+  }
+
+  private void saveHarvestManifest(InputManifest manifest, File manifestFile, File output)
+      throws MojoExecutionException {
+    manifest.add("output", InputManifest.stamp(output));
+    try {
+      manifest.save(manifestFile);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to write harvest manifest " + manifestFile, e);
+    }
+  }
+
 
   protected void heat(Commandline cl) throws MojoExecutionException {
     try {
@@ -329,27 +492,7 @@ public class HarvestMojo extends AbstractPackageable {
       }
 
       // TODO: maybe should report or do something with return value.
-      int returnValue = CommandLineUtils.executeCommandLine(cl, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          if (line.contains(" : error ")) {
-            getLog().error(line);
-          } else if (line.contains(" : warning ")) {
-            getLog().warn(line);
-          } else if (verbose) {
-            getLog().info(line);
-          } else {
-            getLog().debug(line);
-          }
-        }
-
-      }, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          getLog().error(line);
-        }
-
-      });
+      int returnValue = runTool("heat", cl, toolOutput(" : error ", " : warning "), toolErrors());
 
       if (returnValue != 0) {
         throw new MojoExecutionException("Problem executing heat, return code " + returnValue
@@ -376,7 +519,13 @@ public class HarvestMojo extends AbstractPackageable {
       return;
     }
 
-    File heatTool = getCommandBuilder().resolveToolExecutable(toolDirectory, "heat");
+    if (isNativeHarvester()) {
+      checkNativeHarvester();
+      harvestFolders(null);
+      return;
+    }
+
+    File heatTool = resolveTool("heat");
     if (!heatTool.exists()) {
       // In WiX v4+ mode heat.exe is provided by the WixToolset.Heat NuGet package (separate
       // from wix.exe). If it was not installed into the toolset artifact, skip harvest with a
@@ -392,101 +541,137 @@ public class HarvestMojo extends AbstractPackageable {
     }
 
     if (getCommandBuilder().isUnifiedBuild()) {
-      if (!wxsGeneratedDirectory.exists())
-        wxsGeneratedDirectory.mkdirs();
-
-      if (StringUtils.isNotEmpty(harvestType)) {
-        multiHeat(heatTool, harvestType, harvestInputDirectory);
-      } else {
-
-        FileFilter directoryFilter = new FileFilter() {
-          public boolean accept(File file) {
-            return file.isDirectory();
-          }
-        };
-        getLog().info("Harvesting inputs from " + harvestInputDirectory.getPath());
-
-        for (File folders : harvestInputDirectory.listFiles(directoryFilter)) {
-          if (HT_DIR.equals(folders.getName())) {
-            for (File subfolder : folders.listFiles(directoryFilter)) {
-              multiHeat(heatTool, HT_DIR, subfolder);
-            }
-          } else if (HT_FILE.equals(folders.getName())) {
-            // for (File subfolder: folders.listFiles(fileFilter) ){
-            // multiHeat(heatTool, HT_FILE, subfolder);
-            // }
-          }
-        }
-      }
+      harvestFolders(heatTool);
       return;
     }
 
-    // Heat requires side by side install of wixext even if unused?
+    harvestFolders(stageHeat(heatTool));
+  }
+
+  /**
+   * Heat v3 loads WixIISExtension, WixUtilExtension and WixVSExtension from its own folder even if
+   * unused, so run it from a copy of its folder in the module with the extensions of the project,
+   * leaving the toolset, which may be the shared cache, as it was extracted.
+   * 
+   * @param heatTool heat in the toolset.
+   * @return heat in heatDirectory.
+   * @throws MojoExecutionException if heat cannot be copied or an extension is missing.
+   */
+  private File stageHeat(File heatTool) throws MojoExecutionException {
     Set<Artifact> dependentExtensions = getExtDependencySets();
-    File toolDir = heatTool.getParentFile();
     getLog().info(
-        "Preparing heat tool with WixIISExtension, WixUtilExtension, WixVSExtension from "
+        "Preparing heat tool in " + heatDirectory.getPath()
+            + " with WixIISExtension, WixUtilExtension, WixVSExtension from "
             + dependentExtensions.size());
-
     for (Artifact ext : dependentExtensions) {
       getLog().debug(
           String.format("Extension artifact %1$s:%2$s:%3$s found", ext.getGroupId(),
               ext.getArtifactId(), ext.getClassifier()));
-      if ("WixIISExtension".equalsIgnoreCase(ext.getClassifier())
-          || "WixUtilExtension".equalsIgnoreCase(ext.getClassifier())
-          || "WixVSExtension".equalsIgnoreCase(ext.getClassifier())) {
-        getLog().info(ext.getFile().getName());
-        try {
-          FileUtils.copyFileIfModified(ext.getFile(), new File(toolDir, ext.getClassifier()
-              + ".dll"));
-        } catch (IOException e) {
-          // TODO Auto-generated catch block
-          e.printStackTrace();
-          // TODO: resolve if we should raise this as a failure/excution exception or just ignore.
-          // throw new MojoExecutionException( "NAR: could not copy include files", e );
+    }
+    try {
+      copyFolder(heatTool.getParentFile(), heatDirectory.getAbsoluteFile(), true);
+      for (String name : HEAT_EXTENSIONS) {
+        File staged = new File(heatDirectory, name + ".dll");
+        Artifact extension = null;
+        for (Artifact ext : dependentExtensions) {
+          if (name.equalsIgnoreCase(ext.getClassifier()))
+            extension = ext;
         }
+        if (extension == null) {
+          // not left over from an earlier build with other dependencies
+          staged.delete();
+          throw new MojoExecutionException(
+              "Problem executing heat\nUnable to find dependent extension " + name);
+        }
+        getLog().info(extension.getFile().getName());
+        copyIfChanged(extension.getFile(), staged);
       }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Problem preparing heat in " + heatDirectory.getPath(), e);
     }
-    if (!new File(toolDir, "WixIISExtension.dll").exists()) {
-      throw new MojoExecutionException(
-          "Problem executing heat\nUnable to find dependent extension WixIISExtension");
-    }
-    if (!new File(toolDir, "WixUtilExtension.dll").exists()) {
-      throw new MojoExecutionException(
-          "Problem executing heat\nUnable to find dependent extension WixUtilExtension");
+    return new File(heatDirectory, heatTool.getName());
+  }
+
+  /**
+   * Copy the files of a folder that differ in size or time, but not the heat extensions at its top,
+   * which come from the project, nor heatDirectory when it is under the toolset as by default.
+   */
+  private void copyFolder(File from, File to, boolean top) throws IOException {
+    File[] files = from.listFiles();
+    if (files == null)
+      throw new IOException("Unable to list " + from);
+    to.mkdirs();
+    for (File file : files) {
+      if (file.isDirectory()) {
+        if (!file.getAbsoluteFile().equals(heatDirectory.getAbsoluteFile()))
+          copyFolder(file, new File(to, file.getName()), false);
+      } else if (!top || !isHeatExtension(file.getName())) {
+        copyIfChanged(file, new File(to, file.getName()));
+      }
     }
-    if (!new File(toolDir, "WixVSExtension.dll").exists()) {
-      throw new MojoExecutionException(
-          "Problem executing heat\nUnable to find dependent extension WixVSExtension");
+  }
+
+  private static boolean isHeatExtension(String fileName) {
+    for (String name : HEAT_EXTENSIONS) {
+      if (fileName.equalsIgnoreCase(name + ".dll"))
+        return true;
     }
+    return false;
+  }
 
+  /**
+   * Copied with its time, unless the same size and time are there already, so an extension older
+   * than the one staged still replaces it.
+   */
+  private static void copyIfChanged(File from, File to) throws IOException {
+    if (to.isFile() && to.length() == from.length() && to.lastModified() == from.lastModified())
+      return;
+    Files.copy(from.toPath(), to.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.COPY_ATTRIBUTES);
+  }
 
+  /**
+   * Harvest the whole input, or each of the harvestInputDirectory/dir sub folders, the latter side
+   * by side as each goes to its own output.
+   */
+  private void harvestFolders(final File heatTool) throws MojoExecutionException {
     if (!wxsGeneratedDirectory.exists())
       wxsGeneratedDirectory.mkdirs();
 
     if (StringUtils.isNotEmpty(harvestType)) {
       multiHeat(heatTool, harvestType, harvestInputDirectory);
-    } else {
+      return;
+    }
 
-      FileFilter directoryFilter = new FileFilter() {
-        public boolean accept(File file) {
-          return file.isDirectory();
-        }
-      };
-      getLog().info("Harvesting inputs from " + harvestInputDirectory.getPath());
-
-      for (File folders : harvestInputDirectory.listFiles(directoryFilter)) {
-        if (HT_DIR.equals(folders.getName())) {
-          for (File subfolder : folders.listFiles(directoryFilter)) {
-            multiHeat(heatTool, HT_DIR, subfolder);
-          }
-        } else if (HT_FILE.equals(folders.getName())) {
-          // for (File subfolder: folders.listFiles(fileFilter) ){
-          // multiHeat(heatTool, HT_FILE, subfolder);
-          // }
+    FileFilter directoryFilter = new FileFilter() {
+      public boolean accept(File file) {
+        return file.isDirectory();
+      }
+    };
+    getLog().info("Harvesting inputs from " + harvestInputDirectory.getPath());
+
+    WixTaskPool pool = createTaskPool();
+    for (File folders : harvestInputDirectory.listFiles(directoryFilter)) {
+      if (HT_DIR.equals(folders.getName())) {
+        for (final File subfolder : folders.listFiles(directoryFilter)) {
+          pool.add(getHarvestID(HT_DIR, subfolder), new WixTaskPool.Task() {
+            public void execute() throws MojoExecutionException {
+              multiHeat(heatTool, HT_DIR, subfolder);
+            }
+          });
         }
+      } else if (HT_FILE.equals(folders.getName())) {
+        // for (File subfolder: folders.listFiles(fileFilter) ){
+        // multiHeat(heatTool, HT_FILE, subfolder);
+        // }
       }
     }
+
+    Map<String, Long> durations = pool.execute();
+    for (Map.Entry<String, Long> duration : durations.entrySet()) {
+      getLog().info(
+          String.format("Harvested %1$s in %2$d ms", duration.getKey(), duration.getValue()));
+    }
   }
 
   /**
@@ -0,0 +1,228 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The inputs a link output was produced from, so that the link can be skipped while they stay the
+ * same.
+ * <p>
+ * Inputs are keyed by kind and path, such as object:C:\int\x86\Product.wixobj. Objects, locale
+ * files and dependencies are recorded by content digest, payloads found through the bind paths by
+ * size and modification time as they can be very large. Payloads are only known once the tool ran,
+ * so they are added after the link and checked again from the saved manifest.
+ * <p>
+ * Bind paths and harvested trees are recorded by a digest of their metadata alone, as they can be
+ * very large.
+ */
+public class InputManifest {
+
+  /** Key prefix of payloads, checked against the file system rather than the current inputs. */
+  public static final String PAYLOAD = "payload:";
+
+  private static final String MISSING = "missing";
+
+  /** Digests by path, size and time, as the same dependencies are used by every cell. */
+  private static final Map<String, String> DIGESTS = new ConcurrentHashMap<String, String>();
+
+  private final Map<String, String> entries = new TreeMap<String, String>();
+
+  /**
+   * Add a value, such as a command line fingerprint.
+   * 
+   * @param key what the value is.
+   * @param value the value.
+   */
+  public void add(String key, String value) {
+    entries.put(key, value);
+  }
+
+  /**
+   * Add a file by content digest.
+   * 
+   * @param kind what the file is, such as object.
+   * @param file the file.
+   * @throws IOException if the file cannot be read.
+   */
+  public void addFile(String kind, File file) throws IOException {
+    entries.put(kind + ":" + file.getAbsolutePath(), digest(file));
+  }
+
+  /**
+   * Add a payload by size and time.
+   * 
+   * @param file the payload.
+   */
+  public void addPayload(File file) {
+    entries.put(PAYLOAD + file.getAbsolutePath(), stamp(file));
+  }
+
+  /**
+   * Compare with the manifest saved by the previous link.
+   * 
+   * @param file the saved manifest.
+   * @return null when nothing changed, otherwise why the link is needed.
+   * @throws IOException if the saved manifest cannot be read.
+   */
+  public String compare(File file) throws IOException {
+    if (!file.isFile())
+      return "no earlier record";
+    Properties saved = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      saved.load(in);
+    }
+
+    for (Map.Entry<String, String> entry : entries.entrySet()) {
+      String previous = saved.getProperty(entry.getKey());
+      if (previous == null)
+        return entry.getKey() + " was added";
+      if (!previous.equals(entry.getValue()))
+        return entry.getKey() + " changed";
+    }
+    for (String key : saved.stringPropertyNames()) {
+      if (entries.containsKey(key))
+        continue;
+      if (!key.startsWith(PAYLOAD))
+        return key + " was removed";
+      if (!saved.getProperty(key).equals(stamp(new File(key.substring(PAYLOAD.length())))))
+        return key + " changed";
+    }
+    return null;
+  }
+
+  public void save(File file) throws IOException {
+    Properties properties = new Properties();
+    properties.putAll(entries);
+    file.getParentFile().mkdirs();
+    try (OutputStream out = new FileOutputStream(file)) {
+      properties.store(out, "link inputs");
+    }
+  }
+
+  /**
+   * @param file a file.
+   * @return the size and time of the file.
+   */
+  public static String stamp(File file) {
+    if (!file.isFile())
+      return MISSING;
+    return file.length() + ":" + file.lastModified();
+  }
+
+  /**
+   * Digest of the metadata of a directory tree, from one walk without reading any file: the
+   * relative path of each directory, and the relative path, size and time of each file.
+   * 
+   * @param directory the root of the tree.
+   * @return the SHA-1 of the sorted entries as hex.
+   * @throws IOException if the tree cannot be walked.
+   */
+  public static String digestTree(File directory) throws IOException {
+    if (!directory.isDirectory())
+      return MISSING;
+    final Path base = directory.getAbsoluteFile().toPath();
+    final List<String> lines = new ArrayList<String>();
+    Files.walkFileTree(base, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+            lines.add(base.relativize(dir).toString().replace('\\', '/') + "/");
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            lines.add(base.relativize(file).toString().replace('\\', '/') + "|" + attrs.size()
+                + ":" + attrs.lastModifiedTime().toMillis());
+            return FileVisitResult.CONTINUE;
+          }
+
+          @Override
+          public FileVisitResult visitFileFailed(Path file, IOException e) {
+            // recorded, so the tree counts as changed once it can be read
+            lines.add(base.relativize(file).toString().replace('\\', '/') + "|" + MISSING);
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    Collections.sort(lines);
+    MessageDigest sha1 = newDigest();
+    for (String line : lines) {
+      sha1.update(line.getBytes("UTF-8"));
+      sha1.update((byte) '\n');
+    }
+    return toHex(sha1.digest());
+  }
+
+  /**
+   * @param file a file.
+   * @return the SHA-1 of the file content as hex.
+   * @throws IOException if the file cannot be read.
+   */
+  public static String digest(File file) throws IOException {
+    if (!file.isFile())
+      return MISSING;
+    String key = file.getAbsolutePath() + "|" + stamp(file);
+    String digest = DIGESTS.get(key);
+    if (digest == null) {
+      MessageDigest sha1 = newDigest();
+      try (InputStream in = new FileInputStream(file)) {
+        byte[] buffer = new byte[64 * 1024];
+        for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+          sha1.update(buffer, 0, read);
+        }
+      }
+      digest = toHex(sha1.digest());
+      DIGESTS.put(key, digest);
+    }
+    return digest;
+  }
+
+  static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-1 is not available", e);
+    }
+  }
+
+  static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return sb.toString();
+  }
+}
@@ -27,7 +27,8 @@ import org.codehaus.plexus.util.cli.Commandline;
  * 
  * TODO: support writing the inscribed msi to a different location/name
  */
-@Mojo(name = "inscribe", requiresProject = true, defaultPhase = LifecyclePhase.PREPARE_PACKAGE)
+@Mojo(name = "inscribe", requiresProject = true, defaultPhase = LifecyclePhase.PREPARE_PACKAGE,
+    threadSafe = true)
 public class InscribeMojo extends AbstractInsigniaMojo {
 
   /**
@@ -20,8 +20,6 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.codehaus.plexus.compiler.util.scan.*;
-import org.codehaus.plexus.compiler.util.scan.mapping.*;
-import org.codehaus.plexus.components.io.fileselectors.IncludeExcludeFileSelector;
 import org.codehaus.plexus.util.cli.Commandline;
 
 import java.io.BufferedReader;
@@ -30,6 +28,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -44,9 +43,12 @@ import java.util.Set;
  * ${narunpack}\Foo-version\Bar.wixlib
  */
 @Mojo(name = "light", requiresProject = true, defaultPhase = LifecyclePhase.COMPILE,
-    requiresDependencyResolution = ResolutionScope.COMPILE)
+    requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class LightMojo extends AbstractLinker {
 
+  /** Resources unpacked from dependencies, as unpack-dependencies does by default. */
+  private static final String[] UNPACK_INCLUDES = {"wix-locale/**", "cabs/**"};
+
   /**
    * Re use cabinet files across multiple linkages. (-reusecab)
    */
@@ -97,7 +99,7 @@ public class LightMojo extends AbstractLinker {
   @SuppressWarnings("unchecked")
   protected void multilink(File toolDirectory) throws MojoExecutionException {
 
-    File linkTool = getCommandBuilder().resolveToolExecutable(toolDirectory, "light");
+    final File linkTool = resolveTool("light");
     if (!linkTool.exists())
       throw new MojoExecutionException("Light tool doesn't exist " + linkTool.getAbsolutePath());
 
@@ -108,126 +110,170 @@ public class LightMojo extends AbstractLinker {
 
     defaultLocale();
 
-    Set<Artifact> wixDependencies = getWixDependencySets();
-
-    for (Iterator<Artifact> i = wixDependencies.iterator(); i.hasNext();) {
-      Artifact libGroup = i.next();
-      if (!libGroup.hasClassifier()) {
-        getLog().debug("Attempting to unpack resources for " + libGroup.toString());
-        unpackResource(libGroup);
+    final Set<Artifact> wixDependencies = getWixDependencySets();
+
+    if (!isDependenciesUnpacked())
+      unpackResources(UNPACK_INCLUDES, null);
+    resolveRelatedArtifacts(wixDependencies, getPlatforms(), culturespecs());
+
+    // the patterns are filled in lazily, do so before the cells share them
+    getIncludes();
+    getLocaleIncludes();
+
+    WixTaskPool pool = createTaskPool();
+    for (final String arch : getPlatforms()) {
+      final List<String> cultures = new ArrayList<String>(culturespecs());
+      if (reuseCabs) {
+        // cultures of a platform share the cabinet cache, keep them together in one task
+        pool.add(arch, new WixTaskPool.Task() {
+          public void execute() throws MojoExecutionException {
+            for (String culture : cultures) {
+              linkCell(linkTool, wixDependencies, arch, culture);
+            }
+          }
+        });
+      } else {
+        for (final String culture : cultures) {
+          pool.add(cellName(arch, culture), new WixTaskPool.Task() {
+            public void execute() throws MojoExecutionException {
+              linkCell(linkTool, wixDependencies, arch, culture);
+            }
+          });
+        }
       }
     }
+    pool.execute();
+  }
 
-    for (String arch : getPlatforms()) {
-      for (String culture : culturespecs()) {
+  private static String cellName(String arch, String culture) {
+    return culture == null ? arch : arch + "-" + culture;
+  }
 
-        final File intermediateFolder = getArchIntDirectory(arch, culture);
-        if (!intermediateFolder.exists())
-          throw new MojoExecutionException("No source for linking? Intermediate dir doesn't exist "
-              + intermediateFolder.getAbsolutePath());
+  private void linkCell(File linkTool, Set<Artifact> wixDependencies, String arch, String culture)
+      throws MojoExecutionException {
+    final File intermediateFolder = getArchIntDirectory(arch, culture);
+    if (!intermediateFolder.exists())
+      throw new MojoExecutionException("No source for linking? Intermediate dir doesn't exist "
+          + intermediateFolder.getAbsolutePath());
 
-        File archOutputFile = getOutput(arch, culture, outputExtension());
+    File archOutputFile = getOutput(arch, culture, outputExtension());
 
-        getLog().info(" -- Linking : " + archOutputFile.getPath());
-        try {
-          // we are using source scanning to find all the files for the build - because all should
-          // be listed we don't check for just newer
-          // ones.
-          // TODO: add check to see if the msi is out of date compared to input files of all kinds.
-          SourceInclusionScanner scanner =
-              new SimpleSourceInclusionScanner(getIncludes(), getExcludes());
-          scanner.addSourceMapping(new SingleTargetSourceMapping(".wixobj", archOutputFile
-              .getName()));
-          scanner.addSourceMapping(new SingleTargetSourceMapping(".wixlib", archOutputFile
-              .getName()));
-          Set<File> objects = scanner.getIncludedSources(intermediateFolder, archOutputFile);
-          // **/{arch}/*.wixlib
-          // **/{arch}/*.wixobj
-
-
-          Set<String> allSourceRoots = new LinkedHashSet<String>(fileSourceRoots); // we need this
-                                                                                   // to keep order
-                                                                                   // for more
-                                                                                   // specific
-                                                                                   // locale
-          List<File> locales = null; // coming first
-          if (wxlInputDirectory.exists()) {
-            // culture might be a list of primary and fallback cultures
-            // include all the wxl files and the -culture option will sort them out.
-            // include the files from only the primary culture and the nuetral.
-            scanner = new SimpleSourceInclusionScanner(getLocaleIncludes(), getLocaleExcludes());
-            scanner
-                .addSourceMapping(new SingleTargetSourceMapping(".wxl", archOutputFile.getName()));
-            // The order of -loc is currently (wix 3.7) important due to an issue with UI element
-            locales = asSortedList(scanner.getIncludedSources(wxlInputDirectory, archOutputFile));
-
-            addBinderOption(wxlInputDirectory, culture, allSourceRoots);
-          }
-          if (unpackDirectory.exists()) {
-            allSourceRoots.add(unpackDirectory.getAbsolutePath());
-          }
+    getLog().info(" -- Linking : " + archOutputFile.getPath());
+    try {
+      // we are using source scanning to find all the files for the build - because all should
+      // be listed we don't check for just newer
+      // ones, the input manifest decides if the output is out of date.
+      Set<File> objects =
+          fileSnapshots.getIncludedSources(intermediateFolder, getIncludes(), getExcludes());
+      // **/{arch}/*.wixlib
+      // **/{arch}/*.wixobj
+
+
+      Set<String> allSourceRoots = new LinkedHashSet<String>(fileSourceRoots); // we need this
+                                                                               // to keep order
+                                                                               // for more
+                                                                               // specific
+                                                                               // locale
+      List<File> locales = null; // coming first
+      if (wxlInputDirectory.exists()) {
+        // culture might be a list of primary and fallback cultures
+        // include all the wxl files and the -culture option will sort them out.
+        // include the files from only the primary culture and the nuetral.
+        // The order of -loc is currently (wix 3.7) important due to an issue with UI element
+        locales =
+            asSortedList(fileSnapshots.getIncludedSources(wxlInputDirectory, getLocaleIncludes(),
+                getLocaleExcludes()));
+
+        addBinderOption(wxlInputDirectory, culture, allSourceRoots);
+      }
+      if (unpackDirectory.exists()) {
+        allSourceRoots.add(unpackDirectory.getAbsolutePath());
+      }
 
-          Set<String> objectFiles = new HashSet<String>();
-          if (!objects.isEmpty()) {
-            for (Iterator<File> i = objects.iterator(); i.hasNext();) {
-              objectFiles.add(getRelative(i.next()));
-            }
-          }
-          for (Iterator<Artifact> i = wixDependencies.iterator(); i.hasNext();) {
-            Artifact libGroup = i.next();
-            getLog().debug(libGroup.toString());
-            if (PACK_LIB.equalsIgnoreCase(libGroup.getType())) {
-              // try unpack resources
-              addResource(libGroup, culture, allSourceRoots);
-
-              Set<Artifact> depArtifacts = getRelatedArtifacts(libGroup, arch, culture);
-              for (Iterator<Artifact> j = depArtifacts.iterator(); j.hasNext();) {
-                Artifact lib = j.next();
-                objectFiles.add(getRelative(lib.getFile()));
-              }
-            }
+      Set<String> objectFiles = new HashSet<String>();
+      if (!objects.isEmpty()) {
+        for (Iterator<File> i = objects.iterator(); i.hasNext();) {
+          objectFiles.add(getRelative(i.next()));
+        }
+      }
+      for (Iterator<Artifact> i = wixDependencies.iterator(); i.hasNext();) {
+        Artifact libGroup = i.next();
+        getLog().debug(libGroup.toString());
+        if (PACK_LIB.equalsIgnoreCase(libGroup.getType())) {
+          // try unpack resources
+          addResource(libGroup, culture, allSourceRoots);
+
+          Set<Artifact> depArtifacts = getRelatedArtifacts(libGroup, arch, culture);
+          for (Iterator<Artifact> j = depArtifacts.iterator(); j.hasNext();) {
+            Artifact lib = j.next();
+            objectFiles.add(getRelative(lib.getFile()));
           }
+        }
+      }
 
-          if (!objectFiles.isEmpty()) {
-            Commandline cl = new Commandline();
+      if (!objectFiles.isEmpty()) {
+        Commandline cl = new Commandline();
 
-            cl.setExecutable(linkTool.getAbsolutePath());
-            cl.setWorkingDirectory(relativeBase);// wxsInputDirectory
-            addToolsetGeneralOptions(cl);
+        cl.setExecutable(linkTool.getAbsolutePath());
+        cl.setWorkingDirectory(relativeBase);// wxsInputDirectory
+        addToolsetGeneralOptions(cl);
 
-            if (bindFiles)
-              cl.addArguments(new String[] {"-bf"});
+        if (bindFiles)
+          cl.addArguments(new String[] {"-bf"});
 
-            cl.addArguments(new String[] {"-out", archOutputFile.getAbsolutePath()});
+        cl.addArguments(new String[] {"-out", archOutputFile.getAbsolutePath()});
 
-            addOptions(cl, allSourceRoots);
-            addValidationOptions(cl);
-            addLocaleOptions(cl, culture);
+        addOptions(cl, allSourceRoots);
+        addValidationOptions(cl);
+        addLocaleOptions(cl, culture);
 
-            if (locales != null) {
-              for (Iterator<File> i = locales.iterator(); i.hasNext();) {
-                cl.addArguments(new String[] {"-loc", getRelative(i.next())});
-              }
-            }
+        if (locales != null) {
+          for (Iterator<File> i = locales.iterator(); i.hasNext();) {
+            cl.addArguments(new String[] {"-loc", getRelative(i.next())});
+          }
+        }
 
-            addWixExtensions(cl);
-            addOtherOptions(cl);
-            addReuseCabOptions(cl, arch);
+        addWixExtensions(cl);
+        addOtherOptions(cl);
+        addReuseCabOptions(cl, arch);
 
-            cl.addArguments(objectFiles.toArray(new String[0]));
+        addLinkResponseFile(cl, "light", arch, culture, new ResponseFile().addQuoted(objectFiles));
 
-            if (!archOutputFile.getParentFile().exists())
-              archOutputFile.getParentFile().mkdirs();
-            link(cl);
-            // projectHelper.attachArtifact(project, packaging, classifier, archOutputFile);
+        InputManifest manifest = new InputManifest();
+        manifest.add("command", fingerprint(cl));
+        // light lists the payloads it bound, kept with the manifest to check them next time
+        File contentsFile = getLinkStateFile(LINK_CONTENTS_FILE_NAME, "light", arch, culture);
+        cl.addArguments(new String[] {"-contentsfile", contentsFile.getAbsolutePath()});
+        addLinkInputs(manifest, "object", objectFiles);
+        addBindRoots(manifest, allSourceRoots);
+        try {
+          if (locales != null) {
+            for (File locale : locales) {
+              manifest.addFile("locale", locale);
+            }
           }
-
-        } catch (InclusionScanException e) {
-          throw new MojoExecutionException("Scanning for updated files failed", e);
+          for (Artifact dependency : wixDependencies) {
+            if (dependency.getFile() != null)
+              manifest.addFile("dependency", dependency.getFile());
+          }
+        } catch (IOException e) {
+          throw new MojoExecutionException("Unable to read link inputs", e);
         }
+        File manifestFile = getLinkStateFile(LINK_MANIFEST_FILE_NAME, "light", arch, culture);
+        if (isLinkUpToDate(manifest, manifestFile, archOutputFile))
+          return;
 
+        if (!archOutputFile.getParentFile().exists())
+          archOutputFile.getParentFile().mkdirs();
+        link(cl);
+        saveLinkManifest(manifest, manifestFile, contentsFile);
+        // projectHelper.attachArtifact(project, packaging, classifier, archOutputFile);
       }
+
+    } catch (InclusionScanException e) {
+      throw new MojoExecutionException("Scanning for updated files failed", e);
     }
+
   }
 
   /**
@@ -269,49 +315,28 @@ public class LightMojo extends AbstractLinker {
     }
   }
 
-  private void unpackResource(Artifact libGroup) {
-    // TODO: support compile if( libGroup.getFile().isFile() )
-    zipUnArchiver.setSourceFile(libGroup.getFile());
-    File resUnpackDirectory = wixUnpackDirectory(libGroup);
-    // zipUnArchiver.extract(subfolder, resUnpackDirectory);
-
-    if (!resUnpackDirectory.exists())
-      resUnpackDirectory.mkdirs();
-
-    zipUnArchiver.setDestDirectory(resUnpackDirectory);
-    IncludeExcludeFileSelector[] selectors =
-        new IncludeExcludeFileSelector[] {new IncludeExcludeFileSelector()};
-    selectors[0].setIncludes("wix-locale/**,cabs/**".split(","));
-    zipUnArchiver.setFileSelectors(selectors);
-    zipUnArchiver.extract();
-  }
-
   /**
    * WiX v4+ unified build path. Invokes {@code wix.exe build <sources> -o <output>}. Sources are
    * .wxs files scanned from {@code wxsInputDirectory} and {@code wxsGeneratedDirectory}; there are
    * no intermediate .wixobj files.
    */
   @SuppressWarnings("unchecked")
-  private void multilinkV4(File wixExe) throws MojoExecutionException {
+  private void multilinkV4(final File wixExe) throws MojoExecutionException {
     defaultLocale();
 
-    Set<String> wxsSources = new HashSet<String>();
+    final Set<String> wxsSources = new HashSet<String>();
     try {
       Set<String> wxsIncludes = new HashSet<String>();
       wxsIncludes.add("**/*.wxs");
-      SourceInclusionScanner scanner =
-          new SimpleSourceInclusionScanner(wxsIncludes, new HashSet<String>());
-      File dummyTarget = new File(intDirectory, "dummy.msi");
-      scanner.addSourceMapping(new SingleTargetSourceMapping(".wxs", dummyTarget.getName()));
+      Set<String> wxsExcludes = new HashSet<String>();
       if (wxsInputDirectory.exists()) {
-        for (Object o : scanner.getIncludedSources(wxsInputDirectory, intDirectory)) {
-          File f = (File) o;
+        for (File f : fileSnapshots.getIncludedSources(wxsInputDirectory, wxsIncludes, wxsExcludes)) {
           wxsSources.add(getRelative(f));
         }
       }
       if (wxsGeneratedDirectory.exists()) {
-        for (Object o : scanner.getIncludedSources(wxsGeneratedDirectory, intDirectory)) {
-          File f = (File) o;
+        for (File f : fileSnapshots.getIncludedSources(wxsGeneratedDirectory, wxsIncludes,
+            wxsExcludes)) {
           wxsSources.add(getRelative(f));
         }
       }
@@ -325,72 +350,133 @@ public class LightMojo extends AbstractLinker {
       return;
     }
 
-    for (String arch : getPlatforms()) {
-      for (String culture : culturespecs()) {
-        File archOutputFile = getOutput(arch, culture, outputExtension());
-        if (!archOutputFile.getParentFile().exists())
-          archOutputFile.getParentFile().mkdirs();
+    getLocaleIncludes();
 
-        getLog().info(" -- Building (v4): " + archOutputFile.getPath());
-        List<File> locales = null; // coming first
-        try {
-          if (wxlInputDirectory.exists()) {
-            getLog().info(">>> wxlInputDirectory found!");
-            // culture might be a list of primary and fallback cultures
-            // include all the wxl files and the -culture option will sort them out.
-            // include the files from only the primary culture and the nuetral.
-            SourceInclusionScanner scanner =
-                new SimpleSourceInclusionScanner(getLocaleIncludes(), getLocaleExcludes());
-            scanner
-                .addSourceMapping(new SingleTargetSourceMapping(".wxl", archOutputFile.getName()));
-            // The order of -loc is currently (wix 3.7) important due to an issue with UI element
-            locales = asSortedList(scanner.getIncludedSources(wxlInputDirectory, archOutputFile));
-
-            // addBinderOption(wxlInputDirectory, culture, allSourceRoots);
+    WixTaskPool pool = createTaskPool();
+    for (final String arch : getPlatforms()) {
+      for (final String culture : culturespecs()) {
+        pool.add(cellName(arch, culture), new WixTaskPool.Task() {
+          public void execute() throws MojoExecutionException {
+            buildCell(wixExe, wxsSources, arch, culture);
           }
+        });
+      }
+    }
+    pool.execute();
+  }
 
-        } catch (InclusionScanException e) {
-          throw new MojoExecutionException("Scanning for updated files failed", e);
-        }
+  private void buildCell(File wixExe, Set<String> wxsSources, String arch, String culture)
+      throws MojoExecutionException {
+    File archOutputFile = getOutput(arch, culture, outputExtension());
+    if (!archOutputFile.getParentFile().exists())
+      archOutputFile.getParentFile().mkdirs();
 
-        Commandline cl = new Commandline();
-        cl.setExecutable(wixExe.getAbsolutePath());
-        cl.setWorkingDirectory(relativeBase);
-        cl.addArguments(new String[] {"build"});
+    getLog().info(" -- Building (v4): " + archOutputFile.getPath());
+    List<File> locales = null; // coming first
+    try {
+      if (wxlInputDirectory.exists()) {
+        getLog().info(">>> wxlInputDirectory found!");
+        // culture might be a list of primary and fallback cultures
+        // include all the wxl files and the -culture option will sort them out.
+        // include the files from only the primary culture and the nuetral.
+        // The order of -loc is currently (wix 3.7) important due to an issue with UI element
+        locales =
+            asSortedList(fileSnapshots.getIncludedSources(wxlInputDirectory, getLocaleIncludes(),
+                getLocaleExcludes()));
+
+        // addBinderOption(wxlInputDirectory, culture, allSourceRoots);
+      }
 
-        addToolsetGeneralOptions(cl);
-        cl.addArguments(new String[] {"-arch", arch});
-        if (culture != null) { // addLocaleOptions(cl, culture);
-          cl.addArguments(new String[] {"-culture", culture});
-        }
-        cl.addArguments(new String[] {"-outputType", outputTypeForPackaging()});
-        cl.addArguments(new String[] {"-o", archOutputFile.getAbsolutePath()});
+    } catch (InclusionScanException e) {
+      throw new MojoExecutionException("Scanning for updated files failed", e);
+    }
 
-        // addValidationOptions(cl); v4 build doesn't have validation options, but we might want to
-        // add some in the future
-        if (locales != null) {
-          for (Iterator<File> i = locales.iterator(); i.hasNext();) {
-            cl.addArguments(new String[] {"-loc", getRelative(i.next())});
-          }
-        }
+    Commandline cl = new Commandline();
+    cl.setExecutable(wixExe.getAbsolutePath());
+    cl.setWorkingDirectory(relativeBase);
+    cl.addArguments(new String[] {"build"});
 
-        addWixExtensions(cl);
-        addOtherOptions(cl);
+    addToolsetGeneralOptions(cl);
+    cl.addArguments(new String[] {"-arch", arch});
+    if (culture != null) { // addLocaleOptions(cl, culture);
+      cl.addArguments(new String[] {"-culture", culture});
+    }
+    cl.addArguments(new String[] {"-outputType", outputTypeForPackaging()});
+    cl.addArguments(new String[] {"-o", archOutputFile.getAbsolutePath()});
+
+    // addValidationOptions(cl); v4 build doesn't have validation options, but we might want to
+    // add some in the future
+    if (locales != null) {
+      for (Iterator<File> i = locales.iterator(); i.hasNext();) {
+        cl.addArguments(new String[] {"-loc", getRelative(i.next())});
+      }
+    }
 
-        addUnifiedResponseOptions(cl);
+    addWixExtensions(cl);
+    addOtherOptions(cl);
 
-        addUnifiedBindPaths(cl); // addOptions(cl, allSourceRoots);
-        if (wxsGeneratedDirectory != null && wxsGeneratedDirectory.exists()) {
-          cl.addArguments(new String[] {"-b", wxsGeneratedDirectory.getAbsolutePath()});
-        }
+    addUnifiedResponseOptions(cl);
 
-        cl.addArguments(wxsSources.toArray(new String[0]));
-        link(cl);
+    ResponseFile sources = new ResponseFile();
+    Set<String> bindRoots = addUnifiedBindPaths(sources); // addOptions(cl, allSourceRoots);
+    if (wxsGeneratedDirectory != null && wxsGeneratedDirectory.exists()) {
+      sources.addOption("-b", wxsGeneratedDirectory.getAbsolutePath());
+      bindRoots.add(wxsGeneratedDirectory.getAbsolutePath());
+    }
+
+    sources.addQuoted(wxsSources);
+    addLinkResponseFile(cl, "wix", arch, culture, sources);
+
+    // the candle response file carries the -d definitions, part of the command fingerprint
+    InputManifest manifest = new InputManifest();
+    manifest.add("command", fingerprint(cl));
+    addLinkInputs(manifest, "source", wxsSources);
+    // wix build compiles too, so the includes of the sources are link inputs
+    try {
+      for (File include : getSourceIncludes()) {
+        manifest.addFile("include", include);
+      }
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to read link inputs", e);
+    }
+    addBindRoots(manifest, bindRoots);
+    if (locales != null) {
+      List<String> localePaths = new ArrayList<String>();
+      for (File locale : locales) {
+        localePaths.add(locale.getAbsolutePath());
       }
+      addLinkInputs(manifest, "locale", localePaths);
+    }
+    File trackingFile = getLinkStateFile(LINK_CONTENTS_FILE_NAME, "wix", arch, culture);
+    cl.addArguments(new String[] {"-trackingfile", trackingFile.getAbsolutePath()});
+    File manifestFile = getLinkStateFile(LINK_MANIFEST_FILE_NAME, "wix", arch, culture);
+    if (isLinkUpToDate(manifest, manifestFile, archOutputFile))
+      return;
+
+    link(cl);
+    saveLinkManifest(manifest, manifestFile, trackingFile);
+  }
+
+  /**
+   * The .wxi files beside the sources, in a stable order.
+   */
+  private List<File> getSourceIncludes() throws MojoExecutionException {
+    Set<String> includes = new HashSet<String>();
+    includes.add("**/*.wxi");
+    Set<File> found = new HashSet<File>();
+    try {
+      for (File root : new File[] {wxsInputDirectory, wxsGeneratedDirectory}) {
+        if (root != null && root.isDirectory())
+          found.addAll(fileSnapshots.getIncludedSources(root, includes,
+              Collections.<String>emptySet()));
+      }
+    } catch (InclusionScanException e) {
+      throw new MojoExecutionException("Scanning for include files failed", e);
     }
+    return asSortedList(found);
   }
 
-  private void addUnifiedBindPaths(Commandline cl) {
+  private Set<String> addUnifiedBindPaths(ResponseFile sources) {
     Set<String> allSourceRoots = new LinkedHashSet<String>(fileSourceRoots);
 
     List<File> roots = new ArrayList<File>();
@@ -409,8 +495,9 @@ public class LightMojo extends AbstractLinker {
     }
 
     for (String root : allSourceRoots) {
-      cl.addArguments(new String[] {"-b", root});
+      sources.addOption("-b", root);
     }
+    return allSourceRoots;
   }
 
   private void addUnifiedResponseOptions(Commandline cl) throws MojoExecutionException {
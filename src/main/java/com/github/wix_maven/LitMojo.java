@@ -19,12 +19,12 @@ import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.codehaus.plexus.compiler.util.scan.*;
-import org.codehaus.plexus.compiler.util.scan.mapping.*;
 import org.codehaus.plexus.util.cli.Commandline;
 
 import java.io.File;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -32,7 +32,7 @@ import java.util.Set;
  * Goal which executes WiX lit to create a .wixlib file.
  */
 @Mojo(name = "lit", requiresProject = true, defaultPhase = LifecyclePhase.COMPILE,
-    requiresDependencyResolution = ResolutionScope.COMPILE)
+    requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class LitMojo extends AbstractLinker {
 
   /**
@@ -47,7 +47,7 @@ public class LitMojo extends AbstractLinker {
   @SuppressWarnings("unchecked")
   protected void multilink(File toolDirectory) throws MojoExecutionException {
 
-    File linkTool = getCommandBuilder().resolveToolExecutable(toolDirectory, "lit");
+    File linkTool = resolveTool("lit");
     if (!linkTool.exists())
       throw new MojoExecutionException("lit tool doesn't exist " + linkTool.getAbsolutePath());
 
@@ -62,23 +62,19 @@ public class LitMojo extends AbstractLinker {
 
         getLog().info(" -- Linking : " + archOutputFile.getPath());
 
-        SourceInclusionScanner scanner =
-            new SimpleSourceInclusionScanner(getIncludes(), getExcludes());
-        scanner
-            .addSourceMapping(new SingleTargetSourceMapping(".wixobj", archOutputFile.getName()));
+        Set<String> allSourceRoots = new LinkedHashSet<String>(fileSourceRoots);
         Set<File> objects =
-            scanner.getIncludedSources(getArchIntDirectory(arch, null), archOutputFile);
+            fileSnapshots.getIncludedSources(getArchIntDirectory(arch, null), getIncludes(),
+                getExcludes());
 
         List<File> locales = null;
         if (wxlInputDirectory.exists()) {
-          scanner = new SimpleSourceInclusionScanner(getLocaleIncludes(), getLocaleExcludes());
-          scanner.addSourceMapping(new SingleTargetSourceMapping(".wxl", archOutputFile.getName()));
           // The order of -loc is currently (wix 3.7) important due to an issue with UI element
           locales =
-              asSortedList(scanner.getIncludedSources(wxlInputDirectory,
-                  archOutputFile.getParentFile()));
+              asSortedList(fileSnapshots.getIncludedSources(wxlInputDirectory, getLocaleIncludes(),
+                  getLocaleExcludes()));
           // not locale specific because lit doesn't do that
-          fileSourceRoots.add(wxlInputDirectory.getAbsolutePath());
+          allSourceRoots.add(wxlInputDirectory.getAbsolutePath());
         }
 
         if (!objects.isEmpty()) { // || !locales.isEmpty() must have at least one wxs?
@@ -98,7 +94,7 @@ public class LitMojo extends AbstractLinker {
 
           cl.addArguments(new String[] {"-out", archOutputFile.getAbsolutePath()});
 
-          addOptions(cl, fileSourceRoots);
+          addOptions(cl, allSourceRoots);
           addWixExtensions(cl);
           if (locales != null) {
             for (Iterator<File> i = locales.iterator(); i.hasNext();) {
@@ -107,7 +103,7 @@ public class LitMojo extends AbstractLinker {
           }
           addOtherOptions(cl);
 
-          cl.addArguments(files.toArray(new String[0]));
+          addLinkResponseFile(cl, "lit", arch, null, new ResponseFile().addQuoted(files));
 
           if (!archOutputFile.getParentFile().exists())
             archOutputFile.getParentFile().mkdirs();
@@ -129,19 +125,15 @@ public class LitMojo extends AbstractLinker {
     try {
       Set<String> wxsIncludes = new HashSet<String>();
       wxsIncludes.add("**/*.wxs");
-      SourceInclusionScanner scanner =
-          new SimpleSourceInclusionScanner(wxsIncludes, new HashSet<String>());
-      File dummyTarget = new File(intDirectory, "dummy.wixlib");
-      scanner.addSourceMapping(new SingleTargetSourceMapping(".wxs", dummyTarget.getName()));
+      Set<String> wxsExcludes = new HashSet<String>();
       if (wxsInputDirectory.exists()) {
-        for (Object o : scanner.getIncludedSources(wxsInputDirectory, intDirectory)) {
-          File f = (File) o;
+        for (File f : fileSnapshots.getIncludedSources(wxsInputDirectory, wxsIncludes, wxsExcludes)) {
           wxsSources.add(getRelative(f));
         }
       }
       if (wxsGeneratedDirectory.exists()) {
-        for (Object o : scanner.getIncludedSources(wxsGeneratedDirectory, intDirectory)) {
-          File f = (File) o;
+        for (File f : fileSnapshots.getIncludedSources(wxsGeneratedDirectory, wxsIncludes,
+            wxsExcludes)) {
           wxsSources.add(getRelative(f));
         }
       }
@@ -170,19 +162,31 @@ public class LitMojo extends AbstractLinker {
       addOtherOptions(cl);
 
       // WiX v4 does not search the WXS file directory by default; add bindpaths
+      ResponseFile sources = new ResponseFile();
       if (wxsInputDirectory != null && wxsInputDirectory.exists()) {
-        cl.addArguments(new String[] {"-b", wxsInputDirectory.getAbsolutePath()});
+        sources.addOption("-b", wxsInputDirectory.getAbsolutePath());
       }
       if (wxsGeneratedDirectory != null && wxsGeneratedDirectory.exists()) {
-        cl.addArguments(new String[] {"-b", wxsGeneratedDirectory.getAbsolutePath()});
+        sources.addOption("-b", wxsGeneratedDirectory.getAbsolutePath());
       }
 
-      cl.addArguments(wxsSources.toArray(new String[0]));
+      sources.addQuoted(wxsSources);
+      addLinkResponseFile(cl, "wix", arch, null, sources);
+
+      InputManifest manifest = new InputManifest();
+      manifest.add("command", fingerprint(cl));
+      addLinkInputs(manifest, "source", wxsSources);
+      File trackingFile = getLinkStateFile(LINK_CONTENTS_FILE_NAME, "wix", arch, null);
+      cl.addArguments(new String[] {"-trackingfile", trackingFile.getAbsolutePath()});
+      File manifestFile = getLinkStateFile(LINK_MANIFEST_FILE_NAME, "wix", arch, null);
+      if (isLinkUpToDate(manifest, manifestFile, archOutputFile))
+        continue;
 
       if (!archOutputFile.getParentFile().exists())
         archOutputFile.getParentFile().mkdirs();
 
       link(cl);
+      saveLinkManifest(manifest, manifestFile, trackingFile);
     }
   }
 
@@ -0,0 +1,466 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+/**
+ * Harvests a directory or a file into a WiX fragment in process, in place of heat dir and heat file
+ * with the fragment template and generated components, so harvesting needs neither Windows nor the
+ * heat extensions.
+ * <p>
+ * The output follows heat: a fragment with a DirectoryRef (TARGETDIR unless given) holding the
+ * directories with a component and a keypath file for each file, files before sub directories, and
+ * a fragment with the ComponentGroup referencing the components in document order. Identifiers are
+ * dir, cmp and fil followed by a hash of the relative path, or the sanitised names with
+ * suppressUniqueIds. Sources are SourceDir, or the source variable, followed by the path under the
+ * harvested directory, including its name unless the root directory is suppressed.
+ * <p>
+ * The tree is listed in parallel, then written through a streaming XML writer. Registry information
+ * of self registering files is never harvested, as with heat -sreg.
+ */
+public class NativeHarvester {
+
+  /** The WiX v3 schema. */
+  public static final String WIX3_NAMESPACE = "http://schemas.microsoft.com/wix/2006/wi";
+
+  /** The WiX v4+ schema. */
+  public static final String WIX4_NAMESPACE = "http://wixtoolset.org/schemas/v4/wxs";
+
+  private static final String INDENT = "    ";
+
+  /** Directories with fewer entries are listed by the task that found them. */
+  private static final int FORK_THRESHOLD = 8;
+
+  /** Files first, then directories, by name ignoring case as heat lists them on Windows. */
+  private static final Comparator<File> BY_NAME = new Comparator<File>() {
+    public int compare(File lhs, File rhs) {
+      int result = lhs.getName().compareToIgnoreCase(rhs.getName());
+      return result != 0 ? result : lhs.getName().compareTo(rhs.getName());
+    }
+  };
+
+  private final String namespace;
+
+  private String componentGroup;
+
+  private String directoryRef = "TARGETDIR";
+
+  private String directoryId;
+
+  private String sourceVar;
+
+  private boolean binderVariables;
+
+  private boolean suppressRootDirectory;
+
+  private boolean keepEmpty;
+
+  private boolean suppressUniqueIds;
+
+  private boolean generateGuids;
+
+  private boolean guidBraces = true;
+
+  /**
+   * @param namespace the WiX schema of the output, {@link #WIX3_NAMESPACE} or
+   *        {@link #WIX4_NAMESPACE}.
+   */
+  public NativeHarvester(String namespace) {
+    this.namespace = namespace;
+  }
+
+  /** @param componentGroup the ComponentGroup to create [-cg], none when null. */
+  public NativeHarvester setComponentGroup(String componentGroup) {
+    this.componentGroup = isBlank(componentGroup) ? null : componentGroup;
+    return this;
+  }
+
+  /** @param directoryRef the directory to harvest under [-dr], TARGETDIR when empty. */
+  public NativeHarvester setDirectoryRef(String directoryRef) {
+    this.directoryRef = isBlank(directoryRef) ? "TARGETDIR" : directoryRef;
+    return this;
+  }
+
+  /** @param directoryId the identifier of the harvested directory [-directoryid]. */
+  public NativeHarvester setDirectoryId(String directoryId) {
+    this.directoryId = isBlank(directoryId) ? null : directoryId;
+    return this;
+  }
+
+  /** @param sourceVar the variable replacing SourceDir, such as var.MySource [-var]. */
+  public NativeHarvester setSourceVar(String sourceVar) {
+    this.sourceVar = isBlank(sourceVar) ? null : sourceVar;
+    return this;
+  }
+
+  /** @param binderVariables use !(wix.X) rather than $(var.X) for the source variable [-wixvar]. */
+  public NativeHarvester setBinderVariables(boolean binderVariables) {
+    this.binderVariables = binderVariables;
+    return this;
+  }
+
+  /** @param suppressRootDirectory no Directory element for the harvested directory [-srd]. */
+  public NativeHarvester setSuppressRootDirectory(boolean suppressRootDirectory) {
+    this.suppressRootDirectory = suppressRootDirectory;
+    return this;
+  }
+
+  /** @param keepEmpty create empty directories with a CreateFolder component [-ke]. */
+  public NativeHarvester setKeepEmpty(boolean keepEmpty) {
+    this.keepEmpty = keepEmpty;
+    return this;
+  }
+
+  /** @param suppressUniqueIds identifiers from names rather than hashes [-suid]. */
+  public NativeHarvester setSuppressUniqueIds(boolean suppressUniqueIds) {
+    this.suppressUniqueIds = suppressUniqueIds;
+    return this;
+  }
+
+  /**
+   * @param generateGuids component GUIDs now [-gg], from the relative path so they are the same in
+   *        every build, rather than Guid="*" [-ag].
+   * @param guidBraces braces around generated GUIDs, false for [-g1].
+   */
+  public NativeHarvester setGuids(boolean generateGuids, boolean guidBraces) {
+    this.generateGuids = generateGuids;
+    this.guidBraces = guidBraces;
+    return this;
+  }
+
+  /**
+   * @return a digest of the options, for output produced with other options to be harvested again.
+   */
+  public String fingerprint() {
+    MessageDigest digest = InputManifest.newDigest();
+    digest.update(utf8(Arrays.asList(namespace, componentGroup, directoryRef, directoryId,
+        sourceVar, binderVariables, suppressRootDirectory, keepEmpty, suppressUniqueIds,
+        generateGuids, guidBraces).toString()));
+    return InputManifest.toHex(digest.digest());
+  }
+
+  /**
+   * Harvest a directory, as heat dir.
+   * 
+   * @param directory the directory.
+   * @param output the .wxs file to write.
+   * @return the number of files harvested.
+   * @throws MojoExecutionException if the directory cannot be listed or the output written.
+   */
+  public int harvestDirectory(File directory, File output) throws MojoExecutionException {
+    if (!directory.isDirectory())
+      throw new MojoExecutionException("Harvest directory doesn't exist " + directory);
+    Node root = ForkJoinPool.commonPool().invoke(new ListTask(directory));
+    return write(root, output);
+  }
+
+  /**
+   * Harvest one file, as heat file: the file in the directory it is in.
+   * 
+   * @param file the file.
+   * @param output the .wxs file to write.
+   * @return 1.
+   * @throws MojoExecutionException if the output cannot be written.
+   */
+  public int harvestFile(File file, File output) throws MojoExecutionException {
+    if (!file.isFile())
+      throw new MojoExecutionException("Harvest file doesn't exist " + file);
+    Node root = new Node(file.getAbsoluteFile().getParentFile());
+    root.files.add(file);
+    return write(root, output);
+  }
+
+  private int write(Node root, File output) throws MojoExecutionException {
+    output.getParentFile().mkdirs();
+    Writer writer = new Writer();
+    try (OutputStream out = new FileOutputStream(output)) {
+      XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "utf-8");
+      writer.document(xml, root);
+      xml.close();
+    } catch (IOException e) {
+      output.delete();
+      throw new MojoExecutionException("Unable to write harvest " + output, e);
+    } catch (XMLStreamException e) {
+      output.delete();
+      throw new MojoExecutionException("Unable to write harvest " + output, e);
+    }
+    return writer.files;
+  }
+
+  /**
+   * A listed directory, with its files and sub directories sorted.
+   */
+  private static final class Node {
+    private final File directory;
+
+    private final List<File> files = new ArrayList<File>();
+
+    private final List<Node> directories = new ArrayList<Node>();
+
+    private Node(File directory) {
+      this.directory = directory;
+    }
+
+    private boolean isEmpty() {
+      if (!files.isEmpty())
+        return false;
+      for (Node child : directories) {
+        if (!child.isEmpty())
+          return false;
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Lists a directory, forking a task for each sub directory when there are several.
+   */
+  private static final class ListTask extends RecursiveTask<Node> {
+    private static final long serialVersionUID = 1L;
+
+    private final File directory;
+
+    private ListTask(File directory) {
+      this.directory = directory;
+    }
+
+    @Override
+    protected Node compute() {
+      Node node = new Node(directory);
+      File[] entries = directory.listFiles();
+      if (entries == null)
+        return node;
+      Arrays.sort(entries, BY_NAME);
+      List<File> folders = new ArrayList<File>();
+      for (File entry : entries) {
+        if (entry.isDirectory())
+          folders.add(entry);
+        else if (entry.isFile())
+          node.files.add(entry);
+      }
+      if (folders.size() < FORK_THRESHOLD && node.files.size() + folders.size() < FORK_THRESHOLD) {
+        for (File folder : folders) {
+          node.directories.add(new ListTask(folder).compute());
+        }
+      } else {
+        List<ListTask> tasks = new ArrayList<ListTask>();
+        for (File folder : folders) {
+          tasks.add(new ListTask(folder));
+        }
+        invokeAll(tasks);
+        for (ListTask task : tasks) {
+          node.directories.add(task.join());
+        }
+      }
+      return node;
+    }
+  }
+
+  /**
+   * Writes the fragments, keeping the components for the component group.
+   */
+  private final class Writer {
+    private XMLStreamWriter xml;
+
+    private int depth;
+
+    private int files;
+
+    private final List<String> components = new ArrayList<String>();
+
+    private void document(XMLStreamWriter xml, Node root) throws XMLStreamException {
+      this.xml = xml;
+      xml.writeStartDocument("utf-8", "1.0");
+      newLine();
+      xml.writeStartElement("Wix");
+      xml.writeDefaultNamespace(namespace);
+      depth++;
+
+      start("Fragment");
+      start("DirectoryRef");
+      xml.writeAttribute("Id", directoryRef);
+      String rootPath = suppressRootDirectory ? "" : root.directory.getName();
+      if (suppressRootDirectory) {
+        contents(root, rootPath);
+      } else if (keepEmpty || !root.isEmpty()) {
+        directory(root, rootPath, directoryId);
+      }
+      end();
+      end();
+
+      if (componentGroup != null) {
+        start("Fragment");
+        start("ComponentGroup");
+        xml.writeAttribute("Id", componentGroup);
+        for (String component : components) {
+          empty("ComponentRef");
+          xml.writeAttribute("Id", component);
+        }
+        end();
+        end();
+      }
+
+      depth--;
+      newLine();
+      xml.writeEndElement();
+      xml.writeCharacters("\n");
+      xml.writeEndDocument();
+    }
+
+    private void directory(Node node, String path, String id) throws XMLStreamException {
+      start("Directory");
+      xml.writeAttribute("Id", id != null ? id : identifier("dir", path, node.directory.getName()));
+      xml.writeAttribute("Name", node.directory.getName());
+      contents(node, path);
+      end();
+    }
+
+    private void contents(Node node, String path) throws XMLStreamException {
+      for (File file : node.files) {
+        String filePath = child(path, file.getName());
+        String id = identifier("cmp", filePath, file.getName());
+        start("Component");
+        xml.writeAttribute("Id", id);
+        xml.writeAttribute("Guid", guid(filePath));
+        empty("File");
+        xml.writeAttribute("Id", identifier("fil", filePath, file.getName()));
+        xml.writeAttribute("KeyPath", "yes");
+        xml.writeAttribute("Source", source(filePath));
+        end();
+        components.add(id);
+        files++;
+      }
+      if (node.files.isEmpty() && node.directories.isEmpty() && keepEmpty && path.length() > 0) {
+        String id = identifier("cmp", path, node.directory.getName());
+        start("Component");
+        xml.writeAttribute("Id", id);
+        xml.writeAttribute("Guid", guid(path));
+        xml.writeAttribute("KeyPath", "yes");
+        empty("CreateFolder");
+        end();
+        components.add(id);
+      }
+      for (Node child : node.directories) {
+        if (keepEmpty || !child.isEmpty())
+          directory(child, child(path, child.directory.getName()), null);
+      }
+    }
+
+    private void start(String element) throws XMLStreamException {
+      newLine();
+      xml.writeStartElement(element);
+      depth++;
+    }
+
+    private void empty(String element) throws XMLStreamException {
+      newLine();
+      xml.writeEmptyElement(element);
+    }
+
+    private void end() throws XMLStreamException {
+      depth--;
+      newLine();
+      xml.writeEndElement();
+    }
+
+    private void newLine() throws XMLStreamException {
+      StringBuilder indent = new StringBuilder("\n");
+      for (int i = 0; i < depth; i++) {
+        indent.append(INDENT);
+      }
+      xml.writeCharacters(indent.toString());
+    }
+  }
+
+  private static String child(String path, String name) {
+    return path.length() == 0 ? name : path + "\\" + name;
+  }
+
+  private String source(String path) {
+    String prefix = "SourceDir";
+    if (sourceVar != null) {
+      if (sourceVar.startsWith("wix."))
+        prefix = "!(" + sourceVar + ")";
+      else if (binderVariables)
+        prefix =
+            "!(wix." + (sourceVar.startsWith("var.") ? sourceVar.substring(4) : sourceVar) + ")";
+      else
+        prefix = "$(" + sourceVar + ")";
+    }
+    return prefix + "\\" + path;
+  }
+
+  private String guid(String path) {
+    if (!generateGuids)
+      return "*";
+    String guid = UUID.nameUUIDFromBytes(utf8(path.toLowerCase())).toString().toUpperCase();
+    return guidBraces ? "{" + guid + "}" : guid;
+  }
+
+  /**
+   * An identifier from the prefix and relative path, or with suppressUniqueIds from the name.
+   */
+  private String identifier(String prefix, String path, String name) {
+    if (suppressUniqueIds)
+      return sanitize(name);
+    MessageDigest digest = InputManifest.newDigest();
+    digest.update(utf8(prefix + "|" + path.toLowerCase()));
+    String hash = InputManifest.toHex(digest.digest()).toUpperCase();
+    return prefix + hash.substring(0, 32);
+  }
+
+  /**
+   * Letters, digits, underscores and periods, starting with a letter or underscore.
+   */
+  static String sanitize(String name) {
+    StringBuilder id = new StringBuilder(name.length() + 1);
+    for (char c : name.toCharArray()) {
+      id.append(c < 128 && (Character.isLetterOrDigit(c) || c == '_' || c == '.') ? c : '_');
+    }
+    if (id.length() == 0 || !(Character.isLetter(id.charAt(0)) || id.charAt(0) == '_'))
+      id.insert(0, '_');
+    return id.toString();
+  }
+
+  private static byte[] utf8(String value) {
+    try {
+      return value.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static boolean isBlank(String value) {
+    return value == null || value.trim().isEmpty();
+  }
+}
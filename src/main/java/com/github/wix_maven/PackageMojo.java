@@ -27,7 +27,8 @@ import org.codehaus.plexus.util.FileUtils;
 /**
  * Jars up the files associated with the msi/installbundle such as cabs.
  */
-@Mojo(name = "package", requiresProject = true, defaultPhase = LifecyclePhase.PACKAGE)
+@Mojo(name = "package", requiresProject = true, defaultPhase = LifecyclePhase.PACKAGE,
+    threadSafe = true)
 public class PackageMojo extends AbstractPackageable {
 
   /**
@@ -44,9 +44,7 @@ import org.apache.maven.shared.artifact.filter.collection.FilterArtifacts;
 import org.apache.maven.shared.artifact.filter.collection.ProjectTransitivityFilter;
 import org.apache.maven.shared.artifact.filter.collection.TypeFilter;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
-import org.codehaus.plexus.util.cli.StreamConsumer;
 import org.eclipse.aether.artifact.DefaultArtifact;
 import org.eclipse.aether.collection.CollectRequest;
 import org.eclipse.aether.graph.DependencyFilter;
@@ -69,7 +67,7 @@ import org.eclipse.aether.util.filter.DependencyFilterUtils;
  * Goal which executes WiX torch &amp; pyro to create msp files.
  */
 @Mojo(name = "patch", requiresProject = true, defaultPhase = LifecyclePhase.PACKAGE,
-    requiresDependencyResolution = ResolutionScope.COMPILE)
+    requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class PatchMojo extends AbstractTorchMojo {
   // TODO: might be good to make baseline + baseArt + patchedArt an object and make a list of them
   // to allow multiple changes into 1 patch
@@ -309,28 +307,7 @@ public class PatchMojo extends AbstractTorchMojo {
       }
 
       // TODO: maybe should report or do something with return value.
-      int returnValue = CommandLineUtils.executeCommandLine(cl, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          // TODO: pyro specific message handling
-          if (line.contains(" : error ")) {
-            getLog().error(line);
-          } else if (line.contains(" : warning ")) {
-            getLog().warn(line);
-          } else if (verbose) {
-            getLog().info(line);
-          } else {
-            getLog().debug(line);
-          }
-        }
-
-      }, new StreamConsumer() {
-
-        public void consumeLine(final String line) {
-          getLog().error(line);
-        }
-
-      });
+      int returnValue = runTool("pyro", cl, toolOutput(" : error ", " : warning "), toolErrors());
 
       if (returnValue != 0) {
         throw new MojoExecutionException("Problem executing pyro, return code " + returnValue);
@@ -394,7 +371,7 @@ public class PatchMojo extends AbstractTorchMojo {
     }
 
     File torchTool = validateTool();
-    File pyroTool = getCommandBuilder().resolveToolExecutable(toolDirectory, "pyro");
+    File pyroTool = resolveTool("pyro");
     if (!pyroTool.exists())
       throw new MojoExecutionException("Pyro tool doesn't exist " + pyroTool.getAbsolutePath());
 
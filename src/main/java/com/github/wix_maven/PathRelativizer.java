@@ -0,0 +1,184 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Relative paths to a base directory for the many source, object and locale files passed to the
+ * tools.
+ * <p>
+ * The real path of the base is taken once, and the real path of each parent folder once, so a file
+ * costs a lookup of its folder rather than canonicalising both the base and the file. A file that
+ * is itself a symbolic link is resolved the same way as the folders. The paths are compared as
+ * strings by the rules copied from Ant CPPTasks, so UNC paths, drive letters and POSIX paths behave
+ * as they did.
+ */
+public class PathRelativizer {
+
+  private final String canonicalBase;
+
+  /** Real paths of parent folders, by absolute path. */
+  private final Map<Path, String> parents = new ConcurrentHashMap<Path, String>();
+
+  /**
+   * @param base the base directory.
+   * @throws IOException if the real path of the base cannot be found.
+   */
+  public PathRelativizer(File base) throws IOException {
+    this.canonicalBase = realPath(base.toPath().toAbsolutePath());
+  }
+
+  /**
+   * @param target a file.
+   * @return the path of the target relative to the base, or its canonical path if they have nothing
+   *         in common.
+   * @throws IOException if the real path of the target cannot be found.
+   */
+  public String relativize(File target) throws IOException {
+    return relativize(canonicalBase, canonicalPath(target));
+  }
+
+  private String canonicalPath(File target) throws IOException {
+    Path path = target.toPath().toAbsolutePath();
+    Path parent = path.getParent();
+    Path name = path.getFileName();
+    if (parent == null || name == null || name.toString().equals(".")
+        || name.toString().equals("..") || Files.isSymbolicLink(path))
+      return realPath(path);
+
+    String canonicalParent = parents.get(parent);
+    if (canonicalParent == null) {
+      canonicalParent = realPath(parent);
+      parents.put(parent, canonicalParent);
+    }
+    if (canonicalParent.charAt(canonicalParent.length() - 1) == File.separatorChar)
+      return canonicalParent + name;
+    return canonicalParent + File.separatorChar + name;
+  }
+
+  private static String realPath(Path path) throws IOException {
+    try {
+      return path.toRealPath().toString();
+    } catch (IOException e) {
+      // not created yet, canonicalise the name only
+      return path.toFile().getCanonicalPath();
+    }
+  }
+
+  /**
+   * Returns a relative path for the target relative to the base directory. - copied from Ant
+   * CPPTasks
+   * 
+   * @param base base directory as returned by File.getCanonicalPath()
+   * @param target target as returned by File.getCanonicalPath()
+   * @return relative path of target file. Returns target if there were no commonalities between the
+   *         base and the target
+   */
+  public static String relativize(final String base, final String target) {
+    return relativize(base, target, File.separatorChar);
+  }
+
+  /**
+   * @param separator the file separator of the platform the paths come from.
+   * @see #relativize(String, String)
+   */
+  static String relativize(final String base, final String target, final char separator) {
+    //
+    // remove trailing file separator
+    //
+    String canonicalBase = base;
+    if (base.charAt(base.length() - 1) != separator) {
+      canonicalBase = base + separator;
+    }
+    String canonicalTarget = target;
+    if (canonicalBase.startsWith(canonicalTarget + separator)) {
+      canonicalTarget = canonicalTarget + separator;
+    }
+    if (canonicalTarget.equals(canonicalBase)) {
+      return ".";
+    }
+    //
+    // see if the prefixes are the same
+    //
+    if (canonicalBase.substring(0, 2).equals("\\\\")) {
+      //
+      // UNC file name, if target file doesn't also start with same
+      // server name, don't go there
+      int endPrefix = canonicalBase.indexOf('\\', 2);
+      String prefix1 = canonicalBase.substring(0, endPrefix);
+      String prefix2 = canonicalTarget.substring(0, endPrefix);
+      if (!prefix1.equals(prefix2)) {
+        return canonicalTarget;
+      }
+    } else {
+      if (canonicalBase.substring(1, 3).equals(":\\")) {
+        int endPrefix = 2;
+        String prefix1 = canonicalBase.substring(0, endPrefix);
+        String prefix2 = canonicalTarget.substring(0, endPrefix);
+        if (!prefix1.equals(prefix2)) {
+          return canonicalTarget;
+        }
+      } else {
+        if (canonicalBase.charAt(0) == '/') {
+          if (canonicalTarget.charAt(0) != '/') {
+            return canonicalTarget;
+          }
+        }
+      }
+    }
+    int lastCommonSeparator = -1;
+    int minLength = canonicalBase.length();
+    if (canonicalTarget.length() < minLength) {
+      minLength = canonicalTarget.length();
+    }
+    //
+    // walk to the shorter of the two paths
+    // finding the last separator they have in common
+    for (int i = 0; i < minLength; i++) {
+      if (canonicalTarget.charAt(i) == canonicalBase.charAt(i)) {
+        if (canonicalTarget.charAt(i) == separator) {
+          lastCommonSeparator = i;
+        }
+      } else {
+        break;
+      }
+    }
+    StringBuilder relativePath = new StringBuilder(50);
+    //
+    // walk from the first difference to the end of the base
+    // adding "../" for each separator encountered
+    //
+    for (int i = lastCommonSeparator + 1; i < canonicalBase.length(); i++) {
+      if (canonicalBase.charAt(i) == separator) {
+        if (relativePath.length() > 0) {
+          relativePath.append(separator);
+        }
+        relativePath.append("..");
+      }
+    }
+    if (canonicalTarget.length() > lastCommonSeparator + 1) {
+      if (relativePath.length() > 0) {
+        relativePath.append(separator);
+      }
+      relativePath.append(canonicalTarget.substring(lastCommonSeparator + 1));
+    }
+    return relativePath.toString();
+  }
+}
@@ -42,7 +42,7 @@ import org.codehaus.plexus.util.StringUtils;
  * Create meta about this build for dependency inclusion.
  */
 @Mojo(name = "prepare-package", requiresProject = true,
-    defaultPhase = LifecyclePhase.PREPARE_PACKAGE)
+    defaultPhase = LifecyclePhase.PREPARE_PACKAGE, threadSafe = true)
 public class PreparePackageMojo extends AbstractPackageable {
 
   public void execute() throws MojoExecutionException, MojoFailureException {
@@ -0,0 +1,153 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.Properties;
+
+/**
+ * Artifacts that could not be found in any repository, remembered across builds for a while so
+ * classifiers a dependency was never published with are not looked up remotely on every build.
+ * <p>
+ * Entries are coordinates with the time of the miss, and expire after the time to live. Snapshots
+ * are never remembered as they may be deployed at any time. The file is read once per JVM and
+ * updated under a file lock; it only saves lookups, so problems with it are ignored.
+ */
+public class ResolutionMisses {
+
+  /** Threads of one JVM cannot share a file lock. */
+  private static final Object LOCK = new Object();
+
+  private static Properties loaded;
+
+  private static File loadedFile;
+
+  private final File file;
+
+  private final long timeToLive;
+
+  /**
+   * @param file where the misses are kept.
+   * @param timeToLive how long a miss is remembered, in milliseconds.
+   */
+  public ResolutionMisses(File file, long timeToLive) {
+    this.file = file.getAbsoluteFile();
+    this.timeToLive = timeToLive;
+  }
+
+  /**
+   * @param coordinates the artifact coordinates.
+   * @return true if the artifact was missing when last looked up, within the time to live.
+   */
+  public boolean isMissing(String coordinates) {
+    if (timeToLive <= 0 || isSnapshot(coordinates))
+      return false;
+    String time;
+    synchronized (LOCK) {
+      time = read().getProperty(coordinates);
+    }
+    if (time == null)
+      return false;
+    try {
+      return System.currentTimeMillis() - Long.parseLong(time) < timeToLive;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Remember an artifact that could not be found.
+   * 
+   * @param coordinates the artifact coordinates.
+   */
+  public void recordMissing(String coordinates) {
+    if (timeToLive <= 0 || isSnapshot(coordinates))
+      return;
+    synchronized (LOCK) {
+      file.getParentFile().mkdirs();
+      try {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+          FileChannel channel = raf.getChannel();
+          FileLock lock = channel.lock();
+          try {
+            Properties properties = new Properties();
+            properties.load(Channels.newInputStream(channel));
+            long now = System.currentTimeMillis();
+            // drop what has expired so the file does not only grow
+            for (String key : properties.stringPropertyNames()) {
+              try {
+                if (now - Long.parseLong(properties.getProperty(key)) >= timeToLive)
+                  properties.remove(key);
+              } catch (NumberFormatException e) {
+                properties.remove(key);
+              }
+            }
+            properties.setProperty(coordinates, Long.toString(now));
+            channel.truncate(0);
+            channel.position(0);
+            OutputStream out = Channels.newOutputStream(channel);
+            properties.store(out, "artifacts not found");
+            out.flush();
+            loaded = properties;
+            loadedFile = file;
+          } finally {
+            lock.release();
+          }
+        } finally {
+          raf.close();
+        }
+      } catch (IOException e) {
+        // only costs the next build a lookup
+      }
+    }
+  }
+
+  private Properties read() {
+    if (loaded != null && file.equals(loadedFile))
+      return loaded;
+    Properties properties = new Properties();
+    if (file.isFile()) {
+      try {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+          FileChannel channel = raf.getChannel();
+          FileLock lock = channel.lock();
+          try {
+            properties.load(Channels.newInputStream(channel));
+          } finally {
+            lock.release();
+          }
+        } finally {
+          raf.close();
+        }
+      } catch (IOException e) {
+        // treated as no misses
+      }
+    }
+    loaded = properties;
+    loadedFile = file;
+    return properties;
+  }
+
+  private static boolean isSnapshot(String coordinates) {
+    return coordinates.contains("-SNAPSHOT");
+  }
+}
@@ -0,0 +1,111 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The content of a tool response file (@file), one argument or option per line, in place of long
+ * command lines.
+ * <p>
+ * The file is written as UTF-8 and only replaced when the content differs, so an unchanged response
+ * file keeps its time stamp.
+ */
+public class ResponseFile {
+
+  private final List<String> lines = new ArrayList<String>();
+
+  /**
+   * Add a line as is.
+   * 
+   * @param line the text of the line.
+   * @return this response file.
+   */
+  public ResponseFile addLine(String line) {
+    lines.add(line);
+    return this;
+  }
+
+  /**
+   * Add a value, such as a file path, quoted for spaces.
+   * 
+   * @param value the value, must not contain quotes.
+   * @return this response file.
+   */
+  public ResponseFile addQuoted(String value) {
+    lines.add(quote(value));
+    return this;
+  }
+
+  /**
+   * Add each value quoted on its own line.
+   * 
+   * @param values the values, such as file paths.
+   * @return this response file.
+   */
+  public ResponseFile addQuoted(Collection<String> values) {
+    for (String value : values) {
+      addQuoted(value);
+    }
+    return this;
+  }
+
+  /**
+   * Add an option followed by its quoted value, such as -b "path".
+   * 
+   * @param option the option, such as -b.
+   * @param value the value of the option.
+   * @return this response file.
+   */
+  public ResponseFile addOption(String option, String value) {
+    lines.add(option + " " + quote(value));
+    return this;
+  }
+
+  public boolean isEmpty() {
+    return lines.isEmpty();
+  }
+
+  /**
+   * Quote a value, doubling a trailing backslash so it does not escape the closing quote.
+   */
+  private static String quote(String value) {
+    if (value.endsWith("\\"))
+      value = value + "\\";
+    return "\"" + value + "\"";
+  }
+
+  /**
+   * Write the response file, unless it already has this content.
+   * 
+   * @param file the response file.
+   * @return true if the file was written, false if it was up to date.
+   * @throws IOException if the file cannot be written.
+   */
+  public boolean write(File file) throws IOException {
+    return TextFiles.writeIfChanged(file, new TextFiles.Content() {
+      public void write(Writer writer) throws IOException {
+        for (String line : lines) {
+          writer.write(line);
+          writer.write('\n');
+        }
+      }
+    });
+  }
+}
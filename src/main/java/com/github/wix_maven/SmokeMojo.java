@@ -24,7 +24,6 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
 import org.codehaus.plexus.util.cli.StreamConsumer;
 
@@ -32,7 +31,7 @@ import org.codehaus.plexus.util.cli.StreamConsumer;
  * Smoke to perform 'unit' testing of msi/msp Smoke runs ICE similar to light, this goal allows a
  * seperate execution from the linker step. Optionally translate into unit test report output
  */
-@Mojo(name = "smoke", requiresProject = true, defaultPhase = LifecyclePhase.TEST)
+@Mojo(name = "smoke", requiresProject = true, defaultPhase = LifecyclePhase.TEST, threadSafe = true)
 public class SmokeMojo extends AbstractPackageable {
 
   /**
@@ -125,7 +124,7 @@ public class SmokeMojo extends AbstractPackageable {
       final BufferedWriter bw = new BufferedWriter(fw);
 
       // TODO: maybe should report or do something with return value.
-      int returnValue = CommandLineUtils.executeCommandLine(cl, new StreamConsumer() {
+      int returnValue = runTool("smoke", cl, new StreamConsumer() {
 
         public void consumeLine(final String line) {
           if (verbose) {
@@ -203,7 +202,7 @@ public class SmokeMojo extends AbstractPackageable {
     if (reportDirectory != null)
       reportDirectory.mkdirs();
 
-    File smokeTool = getCommandBuilder().resolveToolExecutable(toolDirectory, "smoke");
+    File smokeTool = resolveTool("smoke");
     if (!smokeTool.exists())
       throw new MojoExecutionException("Smoke tool doesn't exist " + smokeTool.getAbsolutePath());
 
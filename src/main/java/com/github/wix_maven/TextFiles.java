@@ -0,0 +1,107 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Text files written by the plugin that other tools, modules or builds read, such as response files
+ * and NuGet configuration.
+ * <p>
+ * A file is written as UTF-8 into a temporary file beside the target, and only replaces the target
+ * when the content differs, so an unchanged file keeps its time stamp and readers never see it half
+ * written.
+ */
+public final class TextFiles {
+
+  private TextFiles() {}
+
+  /**
+   * Write a file, unless it already has this content.
+   * 
+   * @param file the file.
+   * @param content the text.
+   * @return true if the file was written, false if it was up to date.
+   * @throws IOException if the file cannot be written.
+   */
+  public static boolean writeIfChanged(File file, final String content) throws IOException {
+    return writeIfChanged(file, new Content() {
+      public void write(Writer writer) throws IOException {
+        writer.write(content);
+      }
+    });
+  }
+
+  /**
+   * The text of a file, streamed to the writer rather than built in memory.
+   */
+  public interface Content {
+    void write(Writer writer) throws IOException;
+  }
+
+  /**
+   * Write a file, unless it already has this content.
+   * 
+   * @param file the file.
+   * @param content writes the text.
+   * @return true if the file was written, false if it was up to date.
+   * @throws IOException if the file cannot be written.
+   */
+  public static boolean writeIfChanged(File file, Content content) throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (!directory.exists())
+      directory.mkdirs();
+
+    File temp = File.createTempFile(file.getName(), ".tmp", directory);
+    try {
+      try (Writer writer =
+          new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp),
+              StandardCharsets.UTF_8))) {
+        content.write(writer);
+      }
+
+      if (sameContent(temp, file))
+        return false;
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      return true;
+    } finally {
+      if (temp.exists())
+        temp.delete();
+    }
+  }
+
+  private static boolean sameContent(File lhs, File rhs) throws IOException {
+    if (!rhs.isFile() || lhs.length() != rhs.length())
+      return false;
+    try (InputStream left = new BufferedInputStream(new FileInputStream(lhs));
+        InputStream right = new BufferedInputStream(new FileInputStream(rhs))) {
+      for (int l = left.read(); l != -1; l = left.read()) {
+        if (l != right.read())
+          return false;
+      }
+      return right.read() == -1;
+    }
+  }
+}
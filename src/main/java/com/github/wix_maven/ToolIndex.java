@@ -0,0 +1,205 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The executables of an extracted toolset by file name, so tools are found without searching the
+ * tool directory, which is large for NuGet layouts.
+ * <p>
+ * The index is saved with the key of the toolset it was built from, in the toolset cache entry or
+ * the build directory rather than in tools the user provided, and built again when the toolset or
+ * tool directory changes or an indexed executable is missing. It is replaced atomically, so
+ * parallel builds only ever read a whole index. Indexes are shared by the mojos of the JVM.
+ */
+public class ToolIndex {
+
+  /** The name of the index file. */
+  public static final String INDEX_FILE = ".wix-tool-index.properties";
+
+  private static final String KEY = "#key";
+
+  private static final String DIRECTORY = "#directory";
+
+  private static final Map<String, ToolIndex> INDEXES = new ConcurrentHashMap<String, ToolIndex>();
+
+  private final File toolDirectory;
+
+  private final File indexFile;
+
+  private final String key;
+
+  private volatile Properties executables;
+
+  /** Executables not found even after a rebuild, not searched for again. */
+  private final Set<String> missing = Collections
+      .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  private ToolIndex(File toolDirectory, File indexFile, String key, Properties executables) {
+    this.toolDirectory = toolDirectory;
+    this.indexFile = indexFile;
+    this.key = key;
+    this.executables = executables;
+  }
+
+  /**
+   * Get the index of a tool directory, loading or building it for the toolset key.
+   * 
+   * @param toolDirectory the extracted tools.
+   * @param indexFile where the index is saved.
+   * @param key identifies the toolset, such as a digest of its jars, or null to accept any saved
+   *        index of the tool directory.
+   * @return the index.
+   */
+  public static ToolIndex open(File toolDirectory, File indexFile, String key) {
+    String path = toolDirectory.getAbsolutePath();
+    ToolIndex index = INDEXES.get(path);
+    if (index != null && (key == null || key.equals(index.key)))
+      return index;
+
+    Properties saved = load(indexFile);
+    if (saved == null || !path.equals(saved.getProperty(DIRECTORY))
+        || (key != null && !key.equals(saved.getProperty(KEY))))
+      saved = null;
+    String indexKey = key != null ? key : saved != null ? saved.getProperty(KEY) : "";
+    index = new ToolIndex(toolDirectory, indexFile, indexKey, saved);
+    if (saved == null)
+      index.rebuild();
+    INDEXES.put(path, index);
+    return index;
+  }
+
+  /**
+   * Forget the index of a tool directory, such as when the tools are extracted again.
+   * 
+   * @param toolDirectory the extracted tools.
+   * @param indexFile where the index is saved.
+   */
+  public static void invalidate(File toolDirectory, File indexFile) {
+    INDEXES.remove(toolDirectory.getAbsolutePath());
+    indexFile.delete();
+  }
+
+  /**
+   * @param executableName the executable file name, such as wix.exe.
+   * @return the executable closest to the tool directory root, or null if there is none.
+   */
+  public File find(String executableName) {
+    File found = lookup(executableName);
+    if (found == null ? !missing.contains(executableName.toLowerCase()) : !found.isFile()) {
+      // tools may have been extracted, or removed, since the index was built
+      rebuild();
+      found = lookup(executableName);
+      if (found == null)
+        missing.add(executableName.toLowerCase());
+    }
+    return found;
+  }
+
+  private File lookup(String executableName) {
+    String relative = executables.getProperty(executableName.toLowerCase());
+    return relative == null ? null : new File(toolDirectory, relative);
+  }
+
+  private synchronized void rebuild() {
+    Properties index = new Properties();
+    collect(toolDirectory, index);
+    index.setProperty(KEY, key);
+    index.setProperty(DIRECTORY, toolDirectory.getAbsolutePath());
+    executables = index;
+    if (toolDirectory.isDirectory()) {
+      try {
+        save(index, indexFile);
+      } catch (IOException e) {
+        // the index is only kept to save the next build the search
+      }
+    }
+  }
+
+  /**
+   * Write the index beside its file and move it into place, so a reader never sees part of it.
+   */
+  private static void save(Properties index, File indexFile) throws IOException {
+    File directory = indexFile.getAbsoluteFile().getParentFile();
+    if (!directory.exists())
+      directory.mkdirs();
+    File temp = File.createTempFile(INDEX_FILE, ".tmp", directory);
+    try {
+      try (OutputStream out = new FileOutputStream(temp)) {
+        index.store(out, "toolset executables");
+      }
+      try {
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.ATOMIC_MOVE,
+            StandardCopyOption.REPLACE_EXISTING);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+
+  /**
+   * Index the executables level by level, so the one closest to the root wins.
+   */
+  private static void collect(File root, Properties index) {
+    LinkedList<File> folders = new LinkedList<File>();
+    LinkedList<String> prefixes = new LinkedList<String>();
+    folders.add(root);
+    prefixes.add("");
+    while (!folders.isEmpty()) {
+      File folder = folders.removeFirst();
+      String prefix = prefixes.removeFirst();
+      File[] files = folder.listFiles();
+      if (files == null)
+        continue;
+      for (File file : files) {
+        String name = file.getName().toLowerCase();
+        if (file.isDirectory()) {
+          folders.add(file);
+          prefixes.add(prefix + file.getName() + "/");
+        } else if (name.endsWith(".exe") && !index.containsKey(name)) {
+          index.setProperty(name, prefix + file.getName());
+        }
+      }
+    }
+  }
+
+  private static Properties load(File file) {
+    if (!file.isFile())
+      return null;
+    Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      properties.load(in);
+    } catch (IOException e) {
+      return null;
+    }
+    return properties;
+  }
+}
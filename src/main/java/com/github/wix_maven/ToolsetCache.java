@@ -0,0 +1,450 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.archiver.zip.ZipUnArchiver;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+/**
+ * Toolset jars extracted once per user rather than into every module.
+ * <p>
+ * Each entry is a folder named by the toolset coordinates and a digest of the jar contents, so a
+ * rebuilt snapshot gets a new entry. An entry is extracted into a temporary folder and renamed into
+ * place, holding a file lock so that several builds on the machine can share the cache. The entry
+ * records the size of every file it holds, and is extracted again when that no longer matches; the
+ * damaged entry is moved aside, never deleted, as tools may still be running from it.
+ * <p>
+ * A lazy entry only holds the tools asked for. The toolset jar entries are listed once, and the
+ * first use of a tool extracts its executable with the files of its folder, leaving out the other
+ * executables there. Other jars, such as the bootstrap for bundles, are extracted whole.
+ */
+public class ToolsetCache {
+
+  /** Written last into an entry, lists the extracted files with their sizes. */
+  public static final String ENTRY_MANIFEST = ".wix-toolset.properties";
+
+  private static final String LAZY_SUFFIX = "-lazy";
+
+  private static final String KEY = "#key";
+
+  /** Entries and tools verified by this JVM, as every mojo of every module asks for the tools. */
+  private static final Map<String, File> VERIFIED = new ConcurrentHashMap<String, File>();
+
+  /** Threads of one JVM cannot share a file lock, they wait on the entry name instead. */
+  private static final Map<String, Object> LOCKS = new ConcurrentHashMap<String, Object>();
+
+  /** File entries of the toolset jars by path, size and time. */
+  private static final Map<String, List<String>> JAR_INDEX =
+      new ConcurrentHashMap<String, List<String>>();
+
+  private final File cacheDirectory;
+
+  private final Artifact[] tools;
+
+  private final String subfolder;
+
+  private final Log log;
+
+  private final String key;
+
+  private final String name;
+
+  /**
+   * @param cacheDirectory the root of the cache.
+   * @param tools the toolset jars, extracted into the same folder.
+   * @param subfolder the folder of the jars to extract, or empty for all.
+   * @param log where to report extraction.
+   * @throws MojoExecutionException if the jars cannot be read.
+   */
+  public ToolsetCache(File cacheDirectory, Artifact[] tools, String subfolder, Log log)
+      throws MojoExecutionException {
+    this.cacheDirectory = cacheDirectory.getAbsoluteFile();
+    this.tools = tools;
+    this.subfolder = subfolder;
+    this.log = log;
+    try {
+      key = key(tools, subfolder);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Unable to read the toolset", e);
+    }
+    name = entryName(tools, key);
+  }
+
+  /**
+   * Get the folder holding the extracted tools, extracting them when the cache has no valid entry.
+   * 
+   * @return the folder of the tools.
+   * @throws MojoExecutionException if the tools cannot be extracted.
+   */
+  public File install() throws MojoExecutionException {
+    final File entry = new File(cacheDirectory, name);
+    final File manifest = new File(entry, ENTRY_MANIFEST);
+    locked(name, manifest, new Step() {
+      public void run() throws IOException, MojoExecutionException {
+        extract(entry);
+      }
+    });
+    return entry;
+  }
+
+  /**
+   * @return identifies the toolset, a digest of its jars and the extracted folder.
+   */
+  public String getKey() {
+    return key;
+  }
+
+  /**
+   * @return the folder of a lazy entry, holding only the tools installed so far.
+   */
+  public File getLazyEntry() {
+    return new File(cacheDirectory, name + LAZY_SUFFIX);
+  }
+
+  /**
+   * Extract a tool into the lazy entry, unless it is already there.
+   * 
+   * @param executableName the file name of the tool executable, such as candle.exe.
+   * @throws MojoExecutionException if the tool cannot be extracted.
+   */
+  public void installTool(final String executableName) throws MojoExecutionException {
+    final File entry = getLazyEntry();
+    if (tools.length > 1) {
+      locked(entry.getName(), new File(entry, ENTRY_MANIFEST), new Step() {
+        public void run() throws IOException, MojoExecutionException {
+          Properties manifest = new Properties();
+          for (int i = 1; i < tools.length; i++) {
+            List<String> files = new ArrayList<String>();
+            for (String entryName : index(tools[i].getFile())) {
+              if (subfolder.isEmpty() || entryName.startsWith(subfolder + "/"))
+                files.add(entryName);
+            }
+            extractEntries(tools[i].getFile(), files, entry, manifest);
+          }
+          store(manifest, new File(entry, ENTRY_MANIFEST));
+        }
+      });
+    }
+    locked(entry.getName(), new File(entry, "." + executableName.toLowerCase() + ".properties"),
+        new Step() {
+          public void run() throws IOException, MojoExecutionException {
+            File jar = tools[0].getFile();
+            List<String> files = toolEntries(index(jar), executableName);
+            if (files.isEmpty()) {
+              log.warn(String.format("%1$s not found in %2$s", executableName, jar));
+              return;
+            }
+            log.info(String.format("Extracting %1$s from %2$s to %3$s", executableName, jar, entry));
+            Properties manifest = new Properties();
+            extractEntries(jar, files, entry, manifest);
+            store(manifest, new File(entry, "." + executableName.toLowerCase() + ".properties"));
+          }
+        });
+  }
+
+  private interface Step {
+    void run() throws IOException, MojoExecutionException;
+  }
+
+  /**
+   * Run a step unless its manifest is valid, holding the lock of the entry.
+   */
+  private void locked(String lockName, File manifest, Step step) throws MojoExecutionException {
+    if (VERIFIED.containsKey(manifest.getPath()))
+      return;
+
+    Object lock = LOCKS.get(lockName);
+    if (lock == null) {
+      LOCKS.putIfAbsent(lockName, new Object());
+      lock = LOCKS.get(lockName);
+    }
+    synchronized (lock) {
+      if (VERIFIED.containsKey(manifest.getPath()))
+        return;
+      try {
+        if (!isValid(manifest)) {
+          cacheDirectory.mkdirs();
+          RandomAccessFile lockFile =
+              new RandomAccessFile(new File(cacheDirectory, lockName + ".lock"), "rw");
+          try {
+            FileLock fileLock = lockFile.getChannel().lock();
+            try {
+              // another build may have installed it while this one waited
+              if (!isValid(manifest))
+                step.run();
+            } finally {
+              fileLock.release();
+            }
+          } finally {
+            lockFile.close();
+          }
+        }
+      } catch (IOException e) {
+        throw new MojoExecutionException("Unable to install the toolset into "
+            + manifest.getParentFile(), e);
+      }
+      VERIFIED.put(manifest.getPath(), manifest);
+    }
+  }
+
+  /**
+   * @return true if the files of the manifest were extracted from the same jars and none changed
+   *         size.
+   */
+  private boolean isValid(File manifestFile) throws IOException {
+    if (!manifestFile.isFile())
+      return false;
+    Properties manifest = load(manifestFile);
+    if (!key.equals(manifest.getProperty(KEY)))
+      return false;
+    File entry = manifestFile.getParentFile();
+    for (String path : manifest.stringPropertyNames()) {
+      if (KEY.equals(path))
+        continue;
+      File file = new File(entry, path);
+      if (!file.isFile() || file.length() != Long.parseLong(manifest.getProperty(path))) {
+        log.warn("Toolset cache entry " + entry + " is damaged, " + path + " changed");
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void extract(File entry) throws IOException, MojoExecutionException {
+    File temp = Files.createTempDirectory(cacheDirectory.toPath(), entry.getName() + ".").toFile();
+    try {
+      for (Artifact artifact : tools) {
+        log.info(String.format("Extracting %3$s %1$s to %2$s", artifact.getFile(), entry, subfolder));
+        ZipUnArchiver unArchiver = new ZipUnArchiver(artifact.getFile());
+        try {
+          unArchiver.extract(subfolder, temp);
+        } catch (Exception e) {
+          throw new MojoExecutionException("Error extracting resources from " + artifact.getFile(),
+              e);
+        }
+      }
+
+      Properties manifest = new Properties();
+      list(temp, "", manifest);
+      store(manifest, new File(temp, ENTRY_MANIFEST));
+
+      if (entry.exists())
+        retire(entry);
+      move(temp, entry);
+      File indexFile = new File(entry, ToolIndex.INDEX_FILE);
+      ToolIndex.invalidate(entry, indexFile);
+      ToolIndex.open(entry, indexFile, key);
+    } finally {
+      if (temp.exists())
+        FileUtils.deleteDirectory(temp);
+    }
+  }
+
+  /**
+   * Move a damaged entry aside rather than deleting it, as another module or build may still be
+   * running tools from it. The retired folder is left for the user to delete.
+   */
+  private void retire(File entry) throws IOException, MojoExecutionException {
+    File retired =
+        Files.createTempDirectory(cacheDirectory.toPath(), entry.getName() + ".damaged.").toFile();
+    retired.delete();
+    try {
+      move(entry, retired);
+    } catch (IOException e) {
+      throw new MojoExecutionException("Toolset cache entry " + entry
+          + " is damaged and in use, delete it once no build runs tools from it", e);
+    }
+    log.warn("Toolset cache entry " + entry + " was damaged, moved to " + retired
+        + ", which can be deleted once no build runs tools from it");
+  }
+
+  private static void move(File from, File to) throws IOException {
+    try {
+      Files.move(from.toPath(), to.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(from.toPath(), to.toPath());
+    }
+  }
+
+  /**
+   * Extract jar entries one by one, each written beside its target and renamed into place.
+   */
+  private static void extractEntries(File jar, List<String> names, File entry, Properties manifest)
+      throws IOException {
+    String root = entry.getCanonicalPath() + File.separator;
+    ZipFile zip = new ZipFile(jar);
+    try {
+      for (String entryName : names) {
+        ZipEntry zipEntry = zip.getEntry(entryName);
+        File target = new File(entry, entryName);
+        if (!target.getCanonicalPath().startsWith(root))
+          throw new IOException("Entry is outside of the target folder: " + entryName);
+        manifest.setProperty(entryName, Long.toString(zipEntry.getSize()));
+        if (target.isFile() && target.length() == zipEntry.getSize())
+          continue;
+
+        target.getParentFile().mkdirs();
+        File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+        try {
+          try (InputStream in = zip.getInputStream(zipEntry);
+              OutputStream out = new FileOutputStream(temp)) {
+            IOUtil.copy(in, out);
+          }
+          Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+          if (temp.exists())
+            temp.delete();
+        }
+      }
+    } finally {
+      zip.close();
+    }
+  }
+
+  /**
+   * @return the file entries of a jar, listed once per jar.
+   */
+  private static List<String> index(File jar) throws IOException {
+    String indexKey = jar.getAbsolutePath() + "|" + InputManifest.stamp(jar);
+    List<String> names = JAR_INDEX.get(indexKey);
+    if (names == null) {
+      names = new ArrayList<String>();
+      ZipFile zip = new ZipFile(jar);
+      try {
+        for (Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+          ZipEntry zipEntry = e.nextElement();
+          if (!zipEntry.isDirectory() && !zipEntry.getName().startsWith("META-INF/"))
+            names.add(zipEntry.getName());
+        }
+      } finally {
+        zip.close();
+      }
+      names = Collections.unmodifiableList(names);
+      JAR_INDEX.put(indexKey, names);
+    }
+    return names;
+  }
+
+  /**
+   * Pick the entries of a tool: the executable found closest to the root of the subfolder, and the
+   * files of its folder and below, except the other executables beside it.
+   */
+  private List<String> toolEntries(List<String> names, String executableName) {
+    String prefix = subfolder.isEmpty() ? "" : subfolder + "/";
+    String executable = null;
+    for (String entryName : names) {
+      if (entryName.startsWith(prefix) && baseName(entryName).equalsIgnoreCase(executableName)
+          && (executable == null || entryName.length() < executable.length()))
+        executable = entryName;
+    }
+    List<String> files = new ArrayList<String>();
+    if (executable == null)
+      return files;
+
+    String folder = executable.substring(0, executable.length() - baseName(executable).length());
+    for (String entryName : names) {
+      if (!entryName.startsWith(folder))
+        continue;
+      String relative = entryName.substring(folder.length()).toLowerCase();
+      if (relative.indexOf('/') < 0
+          && (relative.endsWith(".exe") || relative.endsWith(".exe.config"))
+          && !relative.startsWith(executableName.toLowerCase()))
+        continue;
+      files.add(entryName);
+    }
+    return files;
+  }
+
+  private static String baseName(String entryName) {
+    return entryName.substring(entryName.lastIndexOf('/') + 1);
+  }
+
+  private void store(Properties manifest, File file) throws IOException {
+    manifest.setProperty(KEY, key);
+    file.getParentFile().mkdirs();
+    try (OutputStream out = new FileOutputStream(file)) {
+      manifest.store(out, "toolset cache entry");
+    }
+  }
+
+  private static void list(File folder, String prefix, Properties manifest) {
+    File[] files = folder.listFiles();
+    if (files == null)
+      return;
+    for (File file : files) {
+      if (file.isDirectory())
+        list(file, prefix + file.getName() + "/", manifest);
+      else
+        manifest.setProperty(prefix + file.getName(), Long.toString(file.length()));
+    }
+  }
+
+  private static Properties load(File file) throws IOException {
+    Properties properties = new Properties();
+    try (InputStream in = new FileInputStream(file)) {
+      properties.load(in);
+    }
+    return properties;
+  }
+
+  /**
+   * @return a digest of the jar contents and the extracted subfolder.
+   */
+  static String key(Artifact[] tools, String subfolder) throws IOException {
+    MessageDigest digest = InputManifest.newDigest();
+    for (Artifact artifact : tools) {
+      digest.update(InputManifest.digest(artifact.getFile()).getBytes("UTF-8"));
+    }
+    digest.update(subfolder.getBytes("UTF-8"));
+    return InputManifest.toHex(digest.digest());
+  }
+
+  /**
+   * @return the toolset coordinates with the start of the key, such as wix-toolset-3.11.0-1a2b3c4d.
+   */
+  private static String entryName(Artifact[] tools, String key) {
+    Artifact toolset = tools[0];
+    StringBuilder sb = new StringBuilder(toolset.getArtifactId()).append('-');
+    sb.append(toolset.getBaseVersion());
+    if (toolset.hasClassifier())
+      sb.append('-').append(toolset.getClassifier());
+    return sb.append('-').append(key.substring(0, 12)).toString();
+  }
+}
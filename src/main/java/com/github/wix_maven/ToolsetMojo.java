@@ -14,8 +14,8 @@ package com.github.wix_maven;
  */
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
 
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -23,9 +23,7 @@ import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
 import org.codehaus.plexus.util.cli.Commandline;
-import org.codehaus.plexus.util.cli.StreamConsumer;
 
 /**
  * TODO: support for tools -
@@ -39,12 +37,22 @@ import org.codehaus.plexus.util.cli.StreamConsumer;
 /**
  * Goal to initialize the workspace with wix toolset.
  */
-@Mojo(name = "toolset", defaultPhase = LifecyclePhase.INITIALIZE)
+@Mojo(name = "toolset", defaultPhase = LifecyclePhase.INITIALIZE, threadSafe = true)
 public class ToolsetMojo extends AbstractWixMojo {
 
   @Parameter(property = "wix.nugetSource", defaultValue = "https://api.nuget.org/v3/index.json")
   private String nugetSource;
 
+  /**
+   * A local folder of .nupkg files searched before nugetSource. When Maven is offline it is the
+   * only source used.
+   */
+  @Parameter(property = "wix.nugetLocalFeed")
+  private File nugetLocalFeed;
+
+  /** Name of the manifest of installed extensions in the toolset cache directory. */
+  public static final String EXTENSION_MANIFEST_NAME = "wix-extensions.properties";
+
   public void execute() throws MojoExecutionException {
     if (skip) {
       getLog().info(getClass().getName() + " skipped");
@@ -66,21 +74,48 @@ public class ToolsetMojo extends AbstractWixMojo {
       return;
     }
 
-    File wixExe = getCommandBuilder().resolveToolExecutable(toolDirectory, "light");
+    File wixExe = resolveTool("light");
     if (!wixExe.isFile()) {
       throw new MojoExecutionException(
           "Unable to locate wix executable for extension installation: " + wixExe.getAbsolutePath());
     }
 
-    File nugetWorkDirectory = prepareNugetWorkDirectory();
     String toolsetVersion = resolveToolsetVersion();
+    ExtensionManifest installed =
+        new ExtensionManifest(new File(toolCacheDirectory, EXTENSION_MANIFEST_NAME));
+    File nugetWorkDirectory = null;
 
     for (String extension : wixExtensions) {
+      if (isExtensionCoordinates(extension))
+        continue; // resolved from the Maven repositories when used
       String extensionRef = withToolsetVersion(extension, toolsetVersion);
+      int slash = extensionRef.indexOf('/');
+      String extensionId = slash > 0 ? extensionRef.substring(0, slash) : extensionRef;
+      String extensionVersion = slash > 0 ? extensionRef.substring(slash + 1) : null;
+      if (installed.isInstalled(extensionId, extensionVersion)) {
+        getLog().debug("WiX extension already installed: " + extensionRef);
+        continue;
+      }
+
+      if (nugetWorkDirectory == null)
+        nugetWorkDirectory = prepareNugetWorkDirectory();
       installWixV4Extension(wixExe, extensionRef, nugetWorkDirectory);
+      installed.recordInstalled(extensionId, extensionVersion,
+          globalExtensionFolder(extensionId, extensionVersion));
     }
   }
 
+  /**
+   * @return the folder wix extension add -g installs to, or null if it is not where expected.
+   */
+  private File globalExtensionFolder(String extensionId, String extensionVersion) {
+    File folder =
+        new File(new File(System.getProperty("user.home"), ".wix/extensions"), extensionId);
+    if (extensionVersion != null)
+      folder = new File(folder, extensionVersion);
+    return folder.isDirectory() ? folder : null;
+  }
+
   private void installWixV4Extension(File wixExe, String extensionRef, File nugetWorkDirectory)
       throws MojoExecutionException {
     String extensionId = extensionRef;
@@ -125,23 +160,7 @@ public class ToolsetMojo extends AbstractWixMojo {
     }
 
     try {
-      return CommandLineUtils.executeCommandLine(cl, new StreamConsumer() {
-        public void consumeLine(final String line) {
-          if (line.contains("error")) {
-            getLog().error(line);
-          } else if (line.contains("warning")) {
-            getLog().warn(line);
-          } else if (verbose) {
-            getLog().info(line);
-          } else {
-            getLog().debug(line);
-          }
-        }
-      }, new StreamConsumer() {
-        public void consumeLine(final String line) {
-          getLog().error(line);
-        }
-      });
+      return runTool("wix", cl, toolOutput("error", "warning"), toolErrors());
     } catch (CommandLineException e) {
       throw new MojoExecutionException("Failed to execute WiX extension command for '" + target
           + "'", e);
@@ -166,37 +185,51 @@ public class ToolsetMojo extends AbstractWixMojo {
     return extensionRef + "/" + toolsetVersion;
   }
 
+  /**
+   * Prepare the NuGet folder shared by all modules using the same package sources, holding the
+   * NuGet.Config and the downloaded packages.
+   */
   private File prepareNugetWorkDirectory() throws MojoExecutionException {
-    File base = new File(project.getBuild().getDirectory(), "wix-extension-cache");
-    if (!base.exists() && !base.mkdirs()) {
+    StringBuilder sources = new StringBuilder();
+    if (nugetLocalFeed != null) {
+      if (!nugetLocalFeed.isDirectory())
+        throw new MojoExecutionException("NuGet local feed is not a folder: "
+            + nugetLocalFeed.getAbsolutePath());
+      sources.append("    <add key=\"wix-local\" value=\"" + nugetLocalFeed.getAbsolutePath()
+          + "\" />\n");
+    }
+    if (nugetLocalFeed == null || !repoSession.isOffline()) {
+      String source =
+          (nugetSource == null || nugetSource.trim().isEmpty()) ? "https://api.nuget.org/v3/index.json"
+              : nugetSource.trim();
+      sources.append("    <add key=\"wix-default\" value=\"" + source + "\" />\n");
+    }
+    String config =
+        "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" + "<configuration>\n"
+            + "  <packageSources>\n" + "    <clear />\n" + sources + "  </packageSources>\n"
+            + "</configuration>\n";
+
+    String sourcesKey;
+    try {
+      sourcesKey =
+          InputManifest.toHex(InputManifest.newDigest().digest(config.getBytes("UTF-8")))
+              .substring(0, 12);
+    } catch (UnsupportedEncodingException e) {
+      throw new MojoExecutionException("UTF-8 is not supported", e);
+    }
+    File base = new File(toolCacheDirectory, "nuget-" + sourcesKey);
+    if (!base.exists() && !base.mkdirs() && !base.isDirectory()) {
       throw new MojoExecutionException("Unable to create wix extension cache directory: "
           + base.getAbsolutePath());
     }
 
     File configFile = new File(base, "NuGet.Config");
-    String source =
-        (nugetSource == null || nugetSource.trim().isEmpty()) ? "https://api.nuget.org/v3/index.json"
-            : nugetSource.trim();
-    String config =
-        "<?xml version=\"1.0\" encoding=\"utf-8\"?>\n" + "<configuration>\n"
-            + "  <packageSources>\n" + "    <clear />\n" + "    <add key=\"wix-default\" value=\""
-            + source + "\" />\n" + "  </packageSources>\n" + "</configuration>\n";
-
-    FileWriter writer = null;
+    // replaced only when it differs, as other modules may be using it
     try {
-      writer = new FileWriter(configFile);
-      writer.write(config);
+      TextFiles.writeIfChanged(configFile, config);
     } catch (IOException e) {
       throw new MojoExecutionException("Failed to write isolated NuGet config: "
           + configFile.getAbsolutePath(), e);
-    } finally {
-      if (writer != null) {
-        try {
-          writer.close();
-        } catch (IOException e) {
-          getLog().warn("Failed closing NuGet config file: " + configFile.getAbsolutePath(), e);
-        }
-      }
     }
 
     return base;
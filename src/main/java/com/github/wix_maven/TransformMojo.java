@@ -30,7 +30,8 @@ import org.codehaus.plexus.util.cli.Commandline;
 /**
  * Goal which executes WiX torch to create diff files - mst, cab
  */
-@Mojo(name = "transform", requiresProject = true, defaultPhase = LifecyclePhase.COMPILE)
+@Mojo(name = "transform", requiresProject = true, defaultPhase = LifecyclePhase.COMPILE,
+    threadSafe = true)
 public class TransformMojo extends AbstractTorchMojo {
 
   public TransformMojo() {}
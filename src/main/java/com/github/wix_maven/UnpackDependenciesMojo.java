@@ -29,17 +29,13 @@ package com.github.wix_maven;
  * the License.
  */
 
-import org.apache.maven.artifact.Artifact;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.plugins.annotations.ResolutionScope;
-import org.codehaus.plexus.components.io.fileselectors.IncludeExcludeFileSelector;
 
 import java.io.File;
-import java.util.Iterator;
-import java.util.Set;
 
 /**
  * Goal that unpacks the project dependencies from the repository to a defined location.
@@ -78,33 +74,8 @@ public class UnpackDependenciesMojo extends AbstractWixMojo {
     }
 
     getLog().info("WiX dependencies");
-    Set<Artifact> wixDependencies = getWixDependencySets();
-
-    for (Iterator<Artifact> i = wixDependencies.iterator(); i.hasNext();) {
-      Artifact libGroup = i.next();
-      if (!libGroup.hasClassifier()) {
-        getLog().debug("Attempting to unpack resources for " + libGroup.toString());
-        unpackResource(libGroup);
-      }
-    }
-  }
-
-  private void unpackResource(Artifact libGroup) {
-    // TODO: support compile if( libGroup.getFile().isFile() )
-    zipUnArchiver.setSourceFile(libGroup.getFile());
-    File resUnpackDirectory = wixUnpackDirectory(libGroup);
-    // zipUnArchiver.extract(subfolder, resUnpackDirectory);
-
-    if (!resUnpackDirectory.exists())
-      resUnpackDirectory.mkdirs();
-
-    zipUnArchiver.setDestDirectory(resUnpackDirectory);
-    IncludeExcludeFileSelector[] selectors =
-        new IncludeExcludeFileSelector[] {new IncludeExcludeFileSelector()};
-    selectors[0].setIncludes(getIncludes());
-    selectors[0].setExcludes(getExcludes());
-    zipUnArchiver.setFileSelectors(selectors);
-    zipUnArchiver.extract();
+    unpackResources(getIncludes(), getExcludes());
+    setDependenciesUnpacked();
   }
 
   /**
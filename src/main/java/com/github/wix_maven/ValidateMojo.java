@@ -21,7 +21,7 @@ import org.apache.maven.project.MavenProjectHelper;
 /**
  * Goal to validate the configuration
  */
-@Mojo(name = "validate", defaultPhase = LifecyclePhase.VALIDATE)
+@Mojo(name = "validate", defaultPhase = LifecyclePhase.VALIDATE, threadSafe = true)
 public class ValidateMojo extends AbstractPackageable {
 
   /**
@@ -0,0 +1,201 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Runs independent pieces of work, such as one candle invocation per architecture/culture, on a
+ * bounded pool of worker threads.
+ * <ul>
+ * <li>Whatever a task logs through the owning mojo's {@link AbstractWixMojo#getLog()} is buffered
+ * and written as one block when the task finishes.</li>
+ * <li>The first task to fail cancels the tasks still waiting or running, and its exception is
+ * rethrown from {@link #execute()}.</li>
+ * <li>With a single thread, or a single task, the work runs inline on the calling thread.</li>
+ * </ul>
+ */
+public class WixTaskPool {
+
+  /**
+   * A unit of work for the pool.
+   */
+  public interface Task {
+    void execute() throws MojoExecutionException;
+  }
+
+  private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+
+  private final AbstractWixMojo mojo;
+
+  private final int threads;
+
+  private final Map<String, Task> tasks = new LinkedHashMap<String, Task>();
+
+  private final Map<String, Long> durations = new ConcurrentHashMap<String, Long>();
+
+  /** Serialises flushing of the per task logs so blocks are not interleaved. */
+  private final Object logLock = new Object();
+
+  public WixTaskPool(AbstractWixMojo mojo, int threads) {
+    this.mojo = mojo;
+    this.threads = Math.max(1, threads);
+  }
+
+  /**
+   * Queue a task to be run by {@link #execute()}.
+   * 
+   * @param name unique name of the task, used for logging and the returned durations.
+   * @param task the work to do.
+   */
+  public void add(String name, Task task) {
+    if (tasks.containsKey(name))
+      throw new IllegalArgumentException("Duplicate task " + name);
+    tasks.put(name, task);
+  }
+
+  public boolean isEmpty() {
+    return tasks.isEmpty();
+  }
+
+  /**
+   * Run all queued tasks and wait for them to complete.
+   * 
+   * @return elapsed milliseconds of each task, in the order the tasks were added.
+   * @throws MojoExecutionException the failure of the first task to fail.
+   */
+  public Map<String, Long> execute() throws MojoExecutionException {
+    int poolSize = Math.min(threads, tasks.size());
+    if (poolSize <= 1) {
+      for (Map.Entry<String, Task> task : tasks.entrySet()) {
+        long start = System.nanoTime();
+        task.getValue().execute();
+        durations.put(task.getKey(), elapsedMillis(start));
+      }
+      return orderedDurations();
+    }
+
+    final Log log = mojo.getMojoLog();
+    log.debug(String.format("Running %1$d tasks on %2$d threads", tasks.size(), poolSize));
+
+    ExecutorService executor = Executors.newFixedThreadPool(poolSize, threadFactory());
+    ExecutorCompletionService<String> completion = new ExecutorCompletionService<String>(executor);
+    List<Future<String>> futures = new ArrayList<Future<String>>(tasks.size());
+    try {
+      for (Map.Entry<String, Task> task : tasks.entrySet()) {
+        futures.add(completion.submit(wrap(task.getKey(), task.getValue(), log)));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          completion.take().get();
+        } catch (ExecutionException e) {
+          cancel(futures, executor);
+          Throwable cause = e.getCause();
+          if (cause instanceof MojoExecutionException)
+            throw (MojoExecutionException) cause;
+          if (cause instanceof RuntimeException)
+            throw (RuntimeException) cause;
+          if (cause instanceof Error)
+            throw (Error) cause;
+          throw new MojoExecutionException(cause.getMessage(), cause);
+        } catch (CancellationException e) {
+          // only happens once we are already failing
+        }
+      }
+    } catch (InterruptedException e) {
+      cancel(futures, executor);
+      Thread.currentThread().interrupt();
+      throw new MojoExecutionException("Interrupted waiting for " + tasks.size() + " tasks", e);
+    } finally {
+      executor.shutdownNow();
+    }
+    return orderedDurations();
+  }
+
+  private Callable<String> wrap(final String name, final Task task, final Log log) {
+    return new Callable<String>() {
+      public String call() throws Exception {
+        BufferedLog buffer = new BufferedLog(log);
+        mojo.setTaskLog(buffer);
+        long start = System.nanoTime();
+        try {
+          task.execute();
+          return name;
+        } finally {
+          durations.put(name, elapsedMillis(start));
+          mojo.setTaskLog(null);
+          synchronized (logLock) {
+            buffer.flush();
+          }
+        }
+      }
+    };
+  }
+
+  private void cancel(List<Future<String>> futures, ExecutorService executor) {
+    for (Future<String> future : futures) {
+      future.cancel(true);
+    }
+    executor.shutdownNow();
+    try {
+      // let the cancelled tasks flush what they logged before the failure is reported
+      executor.awaitTermination(30, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private Map<String, Long> orderedDurations() {
+    Map<String, Long> ordered = new LinkedHashMap<String, Long>();
+    for (String name : tasks.keySet()) {
+      Long duration = durations.get(name);
+      if (duration != null)
+        ordered.put(name, duration);
+    }
+    return ordered;
+  }
+
+  private ThreadFactory threadFactory() {
+    final int pool = POOL_COUNT.incrementAndGet();
+    final AtomicInteger thread = new AtomicInteger();
+    return new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "wix-" + pool + "-" + thread.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+
+  private static long elapsedMillis(long startNanos) {
+    return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+  }
+}
@@ -0,0 +1,499 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.cli.CommandLineException;
+import org.codehaus.plexus.util.cli.Commandline;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+
+/**
+ * Runs one toolset executable and waits for it, in place of CommandLineUtils.executeCommandLine.
+ * <ul>
+ * <li>stdout and stderr are read by their own pump threads, the lines are handed to the consumers
+ * on the calling thread, so they end up in that thread's (task) log.</li>
+ * <li>While waiting the calling thread acts as watchdog, killing the process once it exceeds the
+ * timeout.</li>
+ * <li>When the calling thread is interrupted, such as when a sibling task failed, or the JVM shuts
+ * down, the process and all its descendants are killed.</li>
+ * <li>Wall time, CPU time and, where the platform reports it, peak memory of the process tree are
+ * recorded in the {@link Result}.</li>
+ * </ul>
+ * The executable is started directly with its argument vector, working directory and environment,
+ * unless the shell is asked for or the executable is a batch file, in which case it goes through
+ * the plexus Commandline shell (cmd.exe /X /C on Windows) as before.
+ * <p>
+ * Process trees, CPU time and descendants are read through java.lang.ProcessHandle, which is looked
+ * up reflectively so the plugin still runs on Java 8, where only the direct process is killed and
+ * no CPU time is known.
+ */
+public class WixToolRunner {
+
+  /**
+   * What became of a tool invocation.
+   */
+  public static class Result {
+    private final int exitCode;
+    private final long wallMillis;
+    private final long cpuMillis;
+    private final long peakMemoryKb;
+
+    Result(int exitCode, long wallMillis, long cpuMillis, long peakMemoryKb) {
+      this.exitCode = exitCode;
+      this.wallMillis = wallMillis;
+      this.cpuMillis = cpuMillis;
+      this.peakMemoryKb = peakMemoryKb;
+    }
+
+    public int getExitCode() {
+      return exitCode;
+    }
+
+    public long getWallMillis() {
+      return wallMillis;
+    }
+
+    /** @return CPU time of the process tree, or -1 when not known. */
+    public long getCpuMillis() {
+      return cpuMillis;
+    }
+
+    /** @return sum of the peak resident memory of the process tree, or -1 when not known. */
+    public long getPeakMemoryKb() {
+      return peakMemoryKb;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append("exit ").append(exitCode).append(", wall ").append(wallMillis).append(" ms");
+      if (cpuMillis >= 0)
+        sb.append(", cpu ").append(cpuMillis).append(" ms");
+      if (peakMemoryKb >= 0)
+        sb.append(", peak memory ").append(peakMemoryKb).append(" KB");
+      return sb.toString();
+    }
+  }
+
+  /** How often the watchdog wakes to check the timeout and sample resource use. */
+  private static final long SAMPLE_MILLIS = 250;
+
+  private static final Object END_OF_STREAM = new Object();
+
+  /** Processes still running, killed by the shutdown hook. */
+  private static final Set<Process> RUNNING = ConcurrentHashMap.<Process>newKeySet();
+
+  static {
+    Runtime.getRuntime().addShutdownHook(new Thread("wix-tool-cleanup") {
+      @Override
+      public void run() {
+        for (Process process : RUNNING) {
+          destroyTree(process);
+        }
+      }
+    });
+  }
+
+  private final Log log;
+
+  private final boolean useShell;
+
+  /**
+   * @param log where to report the resource use of each invocation, at debug level.
+   * @param useShell start every executable through the shell rather than directly.
+   */
+  public WixToolRunner(Log log, boolean useShell) {
+    this.log = log;
+    this.useShell = useShell;
+  }
+
+  /**
+   * Run the command line and wait for it to complete.
+   * 
+   * @param tool short tool name used in messages, such as candle.
+   * @param cl the command line.
+   * @param out consumer of stdout lines, called on this thread.
+   * @param err consumer of stderr lines, called on this thread.
+   * @param timeoutSeconds how long the tool may run, 0 or less for no limit.
+   * @return the exit code and resource use.
+   * @throws CommandLineException if the process could not be started.
+   * @throws MojoExecutionException if the tool timed out or the wait was interrupted.
+   */
+  public Result run(String tool, Commandline cl, StreamConsumer out, StreamConsumer err,
+      int timeoutSeconds) throws CommandLineException, MojoExecutionException {
+    long start = System.nanoTime();
+    Process process = start(cl);
+    RUNNING.add(process);
+    Sampler sampler = new Sampler(process);
+    try {
+      BlockingQueue<Object> lines = new LinkedBlockingQueue<Object>();
+      Thread outPump = pump(tool + "-out", process.getInputStream(), lines, false);
+      Thread errPump = pump(tool + "-err", process.getErrorStream(), lines, true);
+      try {
+        process.getOutputStream().close();
+      } catch (IOException e) {
+        // the tool reads no input, nothing is lost
+      }
+
+      long deadline =
+          timeoutSeconds > 0 ? start + TimeUnit.SECONDS.toNanos(timeoutSeconds) : Long.MAX_VALUE;
+      // sample at once, so tools finishing within the interval still report their use
+      long nextSample = start;
+      int openStreams = 2;
+      try {
+        while (openStreams > 0 || process.isAlive()) {
+          Object line = lines.poll(SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+          if (line == END_OF_STREAM) {
+            openStreams--;
+          } else if (line != null) {
+            dispatch((Line) line, out, err);
+          }
+          if (process.isAlive()) {
+            long now = System.nanoTime();
+            // once per interval rather than per line, each sample lists the process table
+            if (now - nextSample >= 0 || (line == END_OF_STREAM && openStreams == 0)) {
+              sampler.sample();
+              nextSample = now + TimeUnit.MILLISECONDS.toNanos(SAMPLE_MILLIS);
+            }
+            if (now > deadline) {
+              destroyTree(process);
+              throw new MojoExecutionException(String.format(
+                  "%1$s timed out after %2$d seconds and was stopped\nFailed execution of %3$s",
+                  tool, timeoutSeconds, cl.toString()));
+            }
+          } else if (openStreams > 0 && line == null) {
+            // the process is gone but a grandchild may hold the stream open, don't wait for it
+            outPump.join(SAMPLE_MILLIS);
+            errPump.join(SAMPLE_MILLIS);
+            if (lines.isEmpty() && (outPump.isAlive() || errPump.isAlive()))
+              break;
+          }
+        }
+        for (Object line = lines.poll(); line != null; line = lines.poll()) {
+          if (line != END_OF_STREAM)
+            dispatch((Line) line, out, err);
+        }
+        int exitCode = process.waitFor();
+        // what the tool used since the last sample, where the platform still reports it
+        sampler.sample();
+
+        Result result =
+            new Result(exitCode, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                sampler.getCpuMillis(), sampler.getPeakMemoryKb());
+        log.debug(tool + ": " + result);
+        return result;
+      } catch (InterruptedException e) {
+        destroyTree(process);
+        Thread.currentThread().interrupt();
+        throw new MojoExecutionException(tool + " was interrupted and has been stopped", e);
+      }
+    } finally {
+      if (process.isAlive())
+        destroyTree(process);
+      RUNNING.remove(process);
+    }
+  }
+
+  /**
+   * The timeout for a tool, the entry for the tool name if present, otherwise the default.
+   * 
+   * @param tool short tool name, such as candle.
+   * @param defaultSeconds timeout for tools without their own entry.
+   * @param toolSeconds per tool timeouts, may be null.
+   * @return the timeout in seconds, 0 for none.
+   */
+  public static int timeoutFor(String tool, int defaultSeconds, Map<String, Integer> toolSeconds) {
+    if (toolSeconds != null) {
+      Integer seconds = toolSeconds.get(tool);
+      if (seconds != null)
+        return seconds;
+    }
+    return defaultSeconds;
+  }
+
+  private Process start(Commandline cl) throws CommandLineException {
+    String executable = cl.getLiteralExecutable();
+    String lower = executable.toLowerCase(Locale.ROOT);
+    if (useShell || lower.endsWith(".bat") || lower.endsWith(".cmd"))
+      return cl.execute();
+
+    List<String> argv = new ArrayList<String>();
+    argv.add(executable);
+    argv.addAll(Arrays.asList(cl.getArguments()));
+    ProcessBuilder builder = new ProcessBuilder(argv);
+
+    File workingDirectory = cl.getWorkingDirectory();
+    if (workingDirectory != null) {
+      if (!workingDirectory.isDirectory())
+        throw new CommandLineException("Working directory \"" + workingDirectory.getPath()
+            + "\" does not exist!");
+      builder.directory(workingDirectory);
+    }
+
+    // the system environment plus whatever was added to the command line
+    Map<String, String> environment = builder.environment();
+    for (String variable : cl.getEnvironmentVariables()) {
+      int equals = variable.indexOf('=');
+      if (equals > 0)
+        environment.put(variable.substring(0, equals), variable.substring(equals + 1));
+    }
+
+    try {
+      return builder.start();
+    } catch (IOException e) {
+      throw new CommandLineException("Error while executing process " + executable, e);
+    }
+  }
+
+  private static class Line {
+    final String text;
+    final boolean error;
+
+    Line(String text, boolean error) {
+      this.text = text;
+      this.error = error;
+    }
+  }
+
+  private static void dispatch(Line line, StreamConsumer out, StreamConsumer err)
+      throws CommandLineException {
+    try {
+      if (line.error)
+        err.consumeLine(line.text);
+      else
+        out.consumeLine(line.text);
+    } catch (IOException e) {
+      throw new CommandLineException("Unable to consume tool output", e);
+    }
+  }
+
+  private static Thread pump(String name, final InputStream stream,
+      final BlockingQueue<Object> lines, final boolean error) {
+    Thread thread = new Thread(new Runnable() {
+      public void run() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
+          for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+            lines.add(new Line(line, error));
+          }
+        } catch (IOException e) {
+          // stream closed as the process was killed
+        } finally {
+          lines.add(END_OF_STREAM);
+        }
+      }
+    }, "wix-" + name);
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  /**
+   * Kill the process and everything it started, children first so they are not orphaned.
+   */
+  static void destroyTree(Process process) {
+    Object handle = ProcessHandles.of(process);
+    if (handle != null) {
+      for (Object descendant : ProcessHandles.descendants(handle)) {
+        ProcessHandles.destroyForcibly(descendant);
+      }
+    }
+    process.destroyForcibly();
+  }
+
+  /**
+   * Keeps the highest CPU time and resident memory seen for each process of the tree, as they are
+   * no longer known once the process exited.
+   */
+  private static class Sampler {
+    private final Object handle;
+    private final Map<Long, Long> cpuMillis = new HashMap<Long, Long>();
+    private final Map<Long, Long> peakMemoryKb = new HashMap<Long, Long>();
+
+    Sampler(Process process) {
+      handle = ProcessHandles.of(process);
+    }
+
+    void sample() {
+      if (handle == null)
+        return;
+      List<Object> tree = new ArrayList<Object>();
+      tree.add(handle);
+      tree.addAll(ProcessHandles.descendants(handle));
+      for (Object process : tree) {
+        long pid = ProcessHandles.pid(process);
+        long cpu = ProcessHandles.cpuMillis(process);
+        if (cpu >= 0)
+          cpuMillis.put(pid, Math.max(cpu, value(cpuMillis, pid)));
+        long memory = peakResidentKb(pid);
+        if (memory >= 0)
+          peakMemoryKb.put(pid, Math.max(memory, value(peakMemoryKb, pid)));
+      }
+    }
+
+    long getCpuMillis() {
+      return sum(cpuMillis);
+    }
+
+    long getPeakMemoryKb() {
+      return sum(peakMemoryKb);
+    }
+
+    private static long value(Map<Long, Long> values, long pid) {
+      Long value = values.get(pid);
+      return value != null ? value : 0;
+    }
+
+    private static long sum(Map<Long, Long> values) {
+      if (values.isEmpty())
+        return -1;
+      long total = 0;
+      for (Iterator<Long> i = values.values().iterator(); i.hasNext();) {
+        total += i.next();
+      }
+      return total;
+    }
+
+    /**
+     * ProcessHandle does not report memory, where there is a /proc file system use the high water
+     * mark of the resident set.
+     */
+    private static long peakResidentKb(long pid) {
+      File status = new File("/proc/" + pid + "/status");
+      if (pid < 0 || !status.isFile())
+        return -1;
+      try {
+        for (String line : FileUtils.fileRead(status).split("\n")) {
+          if (line.startsWith("VmHWM:"))
+            return Long.parseLong(line.substring(6).replace("kB", "").trim());
+        }
+      } catch (IOException e) {
+        // exited between the check and the read
+      } catch (NumberFormatException e) {
+        // unexpected format
+      }
+      return -1;
+    }
+  }
+
+  /**
+   * Reflective access to java.lang.ProcessHandle (Java 9+), every method answers nothing on Java 8.
+   */
+  private static class ProcessHandles {
+    private static final Method TO_HANDLE;
+    private static final Method DESCENDANTS;
+    private static final Method DESTROY_FORCIBLY;
+    private static final Method PID;
+    private static final Method INFO;
+    private static final Method TOTAL_CPU_DURATION;
+
+    static {
+      Method toHandle = null;
+      Method descendants = null;
+      Method destroyForcibly = null;
+      Method pid = null;
+      Method info = null;
+      Method totalCpuDuration = null;
+      try {
+        Class<?> handle = Class.forName("java.lang.ProcessHandle");
+        toHandle = Process.class.getMethod("toHandle");
+        descendants = handle.getMethod("descendants");
+        destroyForcibly = handle.getMethod("destroyForcibly");
+        pid = handle.getMethod("pid");
+        info = handle.getMethod("info");
+        totalCpuDuration =
+            Class.forName("java.lang.ProcessHandle$Info").getMethod("totalCpuDuration");
+      } catch (Exception e) {
+        toHandle = null;
+      }
+      TO_HANDLE = toHandle;
+      DESCENDANTS = descendants;
+      DESTROY_FORCIBLY = destroyForcibly;
+      PID = pid;
+      INFO = info;
+      TOTAL_CPU_DURATION = totalCpuDuration;
+    }
+
+    static Object of(Process process) {
+      if (TO_HANDLE == null)
+        return null;
+      try {
+        return TO_HANDLE.invoke(process);
+      } catch (Exception e) {
+        return null;
+      }
+    }
+
+    static List<Object> descendants(Object handle) {
+      List<Object> result = new ArrayList<Object>();
+      try {
+        Stream<?> stream = (Stream<?>) DESCENDANTS.invoke(handle);
+        for (Iterator<?> i = stream.iterator(); i.hasNext();) {
+          result.add(i.next());
+        }
+      } catch (Exception e) {
+        // process already gone
+      }
+      return result;
+    }
+
+    static void destroyForcibly(Object handle) {
+      try {
+        DESTROY_FORCIBLY.invoke(handle);
+      } catch (Exception e) {
+        // process already gone
+      }
+    }
+
+    static long pid(Object handle) {
+      try {
+        return (Long) PID.invoke(handle);
+      } catch (Exception e) {
+        return -1;
+      }
+    }
+
+    static long cpuMillis(Object handle) {
+      try {
+        Optional<?> duration = (Optional<?>) TOTAL_CPU_DURATION.invoke(INFO.invoke(handle));
+        return duration.isPresent() ? ((Duration) duration.get()).toMillis() : -1;
+      } catch (Exception e) {
+        return -1;
+      }
+    }
+  }
+}
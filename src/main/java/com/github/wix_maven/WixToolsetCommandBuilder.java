@@ -46,10 +46,23 @@ public interface WixToolsetCommandBuilder {
    * Resolve the absolute path to a named WiX tool executable.
    * 
    * @param toolDirectory the root directory where WiX tools were unpacked
+   * @param toolIndex the executables of the tool directory, for layouts that nest them
    * @param toolName logical name (e.g. {@code "candle"}, {@code "light"}, {@code "heat"})
    * @return the {@link File} pointing at the executable; existence is not guaranteed
    */
-  File resolveToolExecutable(File toolDirectory, String toolName);
+  File resolveToolExecutable(File toolDirectory, ToolIndex toolIndex, String toolName);
+
+  /**
+   * The file name of the executable providing a named WiX tool.
+   * <ul>
+   * <li>v3 → {@code "<toolName>.exe"}</li>
+   * <li>v4 → {@code "heat.exe"} for heat, otherwise {@code "wix.exe"}</li>
+   * </ul>
+   * 
+   * @param toolName logical name (e.g. {@code "candle"}, {@code "light"}, {@code "heat"})
+   * @return the executable file name
+   */
+  String getToolExecutableName(String toolName);
 
   /**
    * Append general toolset options to the command line.
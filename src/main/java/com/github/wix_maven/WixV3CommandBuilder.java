@@ -35,8 +35,13 @@ public class WixV3CommandBuilder implements WixToolsetCommandBuilder {
   }
 
   @Override
-  public File resolveToolExecutable(File toolDirectory, String toolName) {
-    return new File(toolDirectory, "bin/" + toolName + ".exe");
+  public File resolveToolExecutable(File toolDirectory, ToolIndex toolIndex, String toolName) {
+    return new File(toolDirectory, "bin/" + getToolExecutableName(toolName));
+  }
+
+  @Override
+  public String getToolExecutableName(String toolName) {
+    return toolName + ".exe";
   }
 
   @Override
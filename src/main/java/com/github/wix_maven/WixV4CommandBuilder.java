@@ -36,22 +36,24 @@ public class WixV4CommandBuilder implements WixToolsetCommandBuilder {
   /** v4 maps all tool names to {@code wix.exe}. */
   private static final String WIX_EXE = "wix.exe";
 
+  /** Heat comes from the WixToolset.Heat package. */
+  private static final String HEAT_EXE = "heat.exe";
+
   @Override
   public String getToolSubdirectory() {
     return "";
   }
 
   @Override
-  public File resolveToolExecutable(File toolDirectory, String toolName) {
+  public File resolveToolExecutable(File toolDirectory, ToolIndex toolIndex, String toolName) {
     // In WiX v4, heat is provided by the separate WixToolset.Heat NuGet package as heat.exe.
     // It is NOT a subcommand of wix.exe (unlike candle/light/lit which became 'wix build').
     if ("heat".equalsIgnoreCase(toolName)) {
-      final String HEAT_EXE = "heat.exe";
       File direct = new File(toolDirectory, HEAT_EXE);
       if (direct.isFile()) {
         return direct;
       }
-      File nested = findExecutableRecursively(toolDirectory, HEAT_EXE);
+      File nested = toolIndex.find(HEAT_EXE);
       return nested != null ? nested : direct;
     }
 
@@ -61,32 +63,13 @@ public class WixV4CommandBuilder implements WixToolsetCommandBuilder {
       return direct;
     }
 
-    File nested = findExecutableRecursively(toolDirectory, WIX_EXE);
+    File nested = toolIndex.find(WIX_EXE);
     return nested != null ? nested : direct;
   }
 
-  private File findExecutableRecursively(File directory, String executableName) {
-    if (directory == null || !directory.exists()) {
-      return null;
-    }
-
-    File[] children = directory.listFiles();
-    if (children == null) {
-      return null;
-    }
-
-    for (File child : children) {
-      if (child.isDirectory()) {
-        File nested = findExecutableRecursively(child, executableName);
-        if (nested != null) {
-          return nested;
-        }
-      } else if (executableName.equalsIgnoreCase(child.getName())) {
-        return child;
-      }
-    }
-
-    return null;
+  @Override
+  public String getToolExecutableName(String toolName) {
+    return "heat".equalsIgnoreCase(toolName) ? HEAT_EXE : WIX_EXE;
   }
 
   @Override
@@ -17,6 +17,9 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
@@ -55,7 +58,7 @@ import org.w3c.dom.Text;
  * </ul>
  */
 @Mojo(name = "wixproj", defaultPhase = LifecyclePhase.VALIDATE,
-    requiresDependencyResolution = ResolutionScope.COMPILE)
+    requiresDependencyResolution = ResolutionScope.COMPILE, threadSafe = true)
 public class WixprojMojo extends AbstractCompilerMojo {
 
   /**
@@ -92,6 +95,9 @@ public class WixprojMojo extends AbstractCompilerMojo {
 
     startVSProjUpdater();
 
+    Set<String> arches = new HashSet<String>(getPlatforms());
+    arches.retainAll(Arrays.asList("x86", "x64"));
+    resolveRelatedArtifacts(getWixDependencySets(), arches, Collections.singleton("en-US"));
     addWixDefines();
     addNARDefines();
     addJARDefines();
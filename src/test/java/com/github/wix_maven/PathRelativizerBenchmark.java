@@ -0,0 +1,93 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Relative paths of the fragments of one cell, canonicalising the base and every file as
+ * getRelative used to, against a {@link PathRelativizer} made per cell.
+ * <p>
+ * Not run by surefire. After mvn test-compile, run it with the test classpath:
+ * 
+ * <pre>
+ * java -cp target/test-classes:target/classes:... org.openjdk.jmh.Main PathRelativizerBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PathRelativizerBenchmark {
+
+  @Param({"1400"})
+  public int fragments;
+
+  private File base;
+
+  private File[] files;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    base = Files.createTempDirectory("relativize").toFile();
+    files = new File[fragments];
+    for (int i = 0; i < fragments; i++) {
+      File folder = new File(base, "src/main/wix/feature" + (i % 20));
+      folder.mkdirs();
+      files[i] = new File(folder, "fragment" + i + ".wxs");
+      files[i].createNewFile();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    FileUtils.deleteDirectory(base);
+  }
+
+  @Benchmark
+  public void canonicalPaths(Blackhole hole) throws IOException {
+    for (File file : files) {
+      hole.consume(PathRelativizer.relativize(base.getCanonicalPath(), file.getCanonicalPath()));
+    }
+  }
+
+  @Benchmark
+  public void relativizer(Blackhole hole) throws IOException {
+    PathRelativizer relativizer = new PathRelativizer(base);
+    for (File file : files) {
+      hole.consume(relativizer.relativize(file));
+    }
+  }
+}
@@ -0,0 +1,93 @@
+package com.github.wix_maven;
+
+/*
+ * #%L WiX Toolset (Windows Installer XML) Maven Plugin %% Copyright (C) 2013 - 2014 GregDomjan
+ * NetIQ %% Licensed under the Apache License, Version 2.0 (the "License"); you may not use this
+ * file except in compliance with the License. You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License. #L%
+ */
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PathRelativizerTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void posixPaths() {
+    assertEquals("src/a.wxs", PathRelativizer.relativize("/work/proj", "/work/proj/src/a.wxs", '/'));
+    assertEquals("../other/a.wxs",
+        PathRelativizer.relativize("/work/proj/", "/work/other/a.wxs", '/'));
+    assertEquals("..", PathRelativizer.relativize("/work/proj/sub", "/work/proj", '/'));
+    assertEquals(".", PathRelativizer.relativize("/work/proj", "/work/proj", '/'));
+  }
+
+  @Test
+  public void driveLetters() {
+    assertEquals("src\\a.wxs",
+        PathRelativizer.relativize("C:\\work\\proj", "C:\\work\\proj\\src\\a.wxs", '\\'));
+    assertEquals("..\\other\\a.wxs",
+        PathRelativizer.relativize("C:\\work\\proj", "C:\\work\\other\\a.wxs", '\\'));
+    assertEquals("D:\\work\\proj\\a.wxs",
+        PathRelativizer.relativize("C:\\work\\proj", "D:\\work\\proj\\a.wxs", '\\'));
+  }
+
+  @Test
+  public void uncPaths() {
+    assertEquals("..\\lib\\a.wxs", PathRelativizer.relativize("\\\\server\\share\\proj",
+        "\\\\server\\share\\lib\\a.wxs", '\\'));
+    assertEquals("\\\\other\\share\\proj\\a.wxs", PathRelativizer.relativize(
+        "\\\\server\\share\\proj", "\\\\other\\share\\proj\\a.wxs", '\\'));
+    assertEquals("C:\\proj\\a.wxs",
+        PathRelativizer.relativize("\\\\server\\share\\proj", "C:\\proj\\a.wxs", '\\'));
+  }
+
+  @Test
+  public void matchesCanonicalPaths() throws IOException {
+    File base = temp.newFolder("base");
+    File source = new File(temp.newFolder("base", "src"), "a.wxs");
+    File missing = new File(base, "obj/x86/a.wixobj");
+    File outside = temp.newFile("b.wxs");
+
+    PathRelativizer relativizer = new PathRelativizer(base);
+    for (File target : new File[] {source, missing, outside, base}) {
+      assertEquals(PathRelativizer.relativize(base.getCanonicalPath(), target.getCanonicalPath()),
+          relativizer.relativize(target));
+    }
+  }
+
+  @Test
+  public void symbolicLinks() throws IOException {
+    File base = temp.newFolder("base");
+    File real = temp.newFile("real.wxs");
+    File link = new File(base, "link.wxs");
+    File linkedFolder = new File(base, "linked");
+    try {
+      Files.createSymbolicLink(link.toPath(), real.toPath());
+      Files.createSymbolicLink(linkedFolder.toPath(), temp.newFolder("folder").toPath());
+    } catch (IOException | UnsupportedOperationException e) {
+      Assume.assumeNoException(e);
+    }
+
+    PathRelativizer relativizer = new PathRelativizer(base);
+    assertEquals(".." + File.separator + "real.wxs", relativizer.relativize(link));
+    assertEquals(".." + File.separator + "folder" + File.separator + "a.wxs",
+        relativizer.relativize(new File(linkedFolder, "a.wxs")));
+  }
+}